@@ -0,0 +1,149 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Measures the cost of encoding control messages, and of splitting them back up with the frame decoder used on control channels.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ControlCodecBenchmark {
+    protected static final int BATCH = 64;
+
+    protected final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 25565);
+
+    protected EmbeddedChannel channel;
+    protected Blackhole       blackhole;
+    protected ByteBuf         incomingBatch;
+    protected ByteBuf         addBatch;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.channel = new EmbeddedChannel();
+        this.channel.pipeline()
+                .addLast("frame", frameDecoder(CONTROL_MAX_FRAME))
+                .addLast("handle", new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                        //parse the commands the same way the control handlers do
+                        ByteBuf buf = (ByteBuf) msg;
+                        while (buf.isReadable()) {
+                            switch (buf.readUnsignedByte()) {
+                                case CONTROL_ADD:
+                                    ControlCodecBenchmark.this.blackhole.consume(buf.readUnsignedShort());
+                                    break;
+                                case CONTROL_INCOMING:
+                                    ControlCodecBenchmark.this.blackhole.consume(buf.readLong());
+                                    ControlCodecBenchmark.this.blackhole.consume(buf.readUnsignedShort());
+                                    ControlCodecBenchmark.this.blackhole.consume(readAddress(buf));
+                                    break;
+                                default:
+                                    throw new IllegalStateException();
+                            }
+                        }
+                        buf.release();
+                    }
+                });
+
+        //one incoming notification per frame, as they are sent by the server
+        this.incomingBatch = PooledByteBufAllocator.DEFAULT.directBuffer();
+        for (int i = 0; i < BATCH; i++) {
+            ByteBuf frame = this.incomingFrame(i);
+            this.incomingBatch.writeBytes(frame);
+            frame.release();
+        }
+
+        //all adds in a single frame, as they are sent by a reconnecting client
+        this.addBatch = beginFrame(PooledByteBufAllocator.DEFAULT, BATCH * 3);
+        for (int i = 0; i < BATCH; i++) this.addBatch.writeByte(CONTROL_ADD).writeShort(i);
+        endFrame(this.addBatch);
+    }
+
+    @TearDown
+    public void teardown() {
+        this.channel.finishAndReleaseAll();
+        this.incomingBatch.release();
+        this.addBatch.release();
+    }
+
+    protected ByteBuf incomingFrame(long id) {
+        ByteBuf buf = beginFrame(PooledByteBufAllocator.DEFAULT, 64)
+                .writeByte(CONTROL_INCOMING)
+                .writeLong(id)
+                .writeShort(25565);
+        writeAddress(buf, this.address);
+        return endFrame(buf);
+    }
+
+    @Benchmark
+    public void encodeIncoming() {
+        this.incomingFrame(0L).release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decodeIncoming() {
+        //all frames arrive in a single read
+        this.channel.writeInbound(this.incomingBatch.retainedDuplicate());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decodeIncomingSplit() {
+        //frames are split across reads at arbitrary points
+        ByteBuf batch = this.incomingBatch;
+        for (int i = 0, size = batch.readableBytes(), step = 37; i < size; i += step) {
+            this.channel.writeInbound(batch.retainedSlice(i, Math.min(step, size - i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decodeAddBatch() {
+        this.channel.writeInbound(this.addBatch.retainedDuplicate());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Measures the cost of forwarding a single buffer through a pair of {@link RelayHandler}s.
+ * <p>
+ * Run with the gc profiler (which the "jmh" gradle task enables by default): {@code gc.alloc.rate.norm} should be 0 B/op, as pooled buffers,
+ * outbound buffer entries and the void promise are all reused.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RelayBenchmark {
+    @Param({"64", "16384"})
+    public int size;
+
+    protected EmbeddedChannel a;
+    protected EmbeddedChannel b;
+    protected ByteBuf         payload;
+
+    @Setup
+    public void setup() {
+        this.a = new EmbeddedChannel();
+        this.b = new EmbeddedChannel();
+        this.a.attr(ATTR_LOG).set(DEFAULT_CHANNEL_LOGGER);
+        this.b.attr(ATTR_LOG).set(DEFAULT_CHANNEL_LOGGER);
+        this.a.pipeline().addLast("handle", new ChannelInboundHandlerAdapter()).addLast("common", CommonHandler.INSTANCE);
+        this.b.pipeline().addLast("handle", new ChannelInboundHandlerAdapter()).addLast("common", CommonHandler.INSTANCE);
+        RelayHandler.relay(this.a, this.b);
+
+        this.payload = PooledByteBufAllocator.DEFAULT.directBuffer(this.size).writeZero(this.size);
+    }
+
+    @TearDown
+    public void teardown() {
+        this.a.finishAndReleaseAll();
+        this.b.finishAndReleaseAll();
+        this.payload.release();
+    }
+
+    @Benchmark
+    public void relay() {
+        this.a.pipeline().fireChannelRead(this.payload.retainedSlice()).fireChannelReadComplete();
+        ((ByteBuf) this.b.readOutbound()).release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public void relayBatch() {
+        //16 reads in one read loop, flushed once
+        for (int i = 0; i < 16; i++) this.a.pipeline().fireChannelRead(this.payload.retainedSlice());
+        this.a.pipeline().fireChannelReadComplete();
+        for (int i = 0; i < 16; i++) ((ByteBuf) this.b.readOutbound()).release();
+    }
+}
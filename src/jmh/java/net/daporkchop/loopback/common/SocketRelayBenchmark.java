@@ -0,0 +1,268 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFactory;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.daporkchop.loopback.util.SslContexts;
+import net.daporkchop.loopback.util.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Measures round trips through a complete tunnel over real loopback sockets.
+ * <p>
+ * The benchmark thread connects to the frontend, whose connections are bound to a tunnel connection to the backend (optionally using TLS),
+ * whose connections are in turn bound to a connection to an echo server. Each operation sends a payload and waits for all of it to be echoed
+ * back, so both throughput and latency include two relay hops in each direction.
+ * <p>
+ * When {@code -Dloopback.plaintext=true} is set and the epoll transport is used, the relays are spliced just like they would be in plaintext mode.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SocketRelayBenchmark {
+    @Param({"nio", "epoll", "io_uring"})
+    public String transport;
+
+    @Param({"false", "true"})
+    public boolean tls;
+
+    @Param({"64", "16384", "1048576"})
+    public int size;
+
+    protected EventLoopGroup                group;
+    protected ChannelFactory<Channel>       channelFactory;
+    protected ChannelFactory<ServerChannel> serverChannelFactory;
+    protected RecvByteBufAllocator          recvAllocator;
+
+    protected Channel echo;
+    protected Channel backend;
+    protected Channel frontend;
+
+    protected Socket          socket;
+    protected OutputStream    out;
+    protected DataInputStream in;
+    protected byte[]          payload;
+    protected byte[]          received;
+
+    @Setup
+    public void setup() throws IOException {
+        Transport transport = Transport.valueOf(this.transport.toUpperCase());
+        if (!transport.isAvailable()) throw new IllegalStateException(transport + " is not available", transport.unavailabilityCause());
+        this.group = transport.eventLoopGroup(2, new DefaultThreadFactory("relay-bench"));
+        this.channelFactory = transport.socketChannelFactory();
+        this.serverChannelFactory = transport.serverSocketChannelFactory();
+        this.recvAllocator = transport.recvByteBufAllocator();
+
+        SslContext serverContext = this.tls ? SslContexts.server() : null;
+        SslContext clientContext = this.tls ? SslContexts.client() : null;
+
+        this.echo = this.listen(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) throws Exception {
+                channel.pipeline().addLast("handle", new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                        ctx.write(msg);
+                    }
+
+                    @Override
+                    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+                        ctx.flush();
+                    }
+                });
+            }
+        });
+
+        //backend: terminates the tunnel and binds each tunnel connection to a connection to the echo server
+        this.backend = this.listen(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) throws Exception {
+                channel.config().setAutoRead(false);
+                if (serverContext != null) channel.pipeline().addLast("ssl", new SslHandler(serverContext.newEngine(channel.alloc()), false));
+                channel.pipeline()
+                        .addLast("handle", new ChannelInboundHandlerAdapter())
+                        .addLast("common", CommonHandler.INSTANCE);
+
+                SocketRelayBenchmark.this.connect(SocketRelayBenchmark.this.echo, null).addListener((ChannelFutureListener) f -> {
+                    if (f.isSuccess()) {
+                        //the handshake promise is completed before any data that arrived along with the last handshake message is decoded, so
+                        // binding from the listener ensures that nothing gets lost
+                        handshakeFuture(channel).addListener(f1 -> {
+                            if (f1.isSuccess()) {
+                                bindChannels(f.channel(), channel);
+                            } else {
+                                f.channel().close();
+                                channel.close();
+                            }
+                        });
+                        channel.read(); //the handshake doesn't start until the channel is read from
+                    } else {
+                        channel.close();
+                    }
+                });
+            }
+        });
+
+        //frontend: accepts the benchmark's connection and binds it to a new tunnel connection
+        this.frontend = this.listen(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) throws Exception {
+                channel.config().setAutoRead(false);
+                channel.pipeline()
+                        .addLast("handle", new ChannelInboundHandlerAdapter())
+                        .addLast("common", CommonHandler.INSTANCE);
+
+                SocketRelayBenchmark.this.connect(SocketRelayBenchmark.this.backend, clientContext).addListener((ChannelFutureListener) f -> {
+                    if (f.isSuccess()) {
+                        handshakeFuture(f.channel()).addListener(f1 -> {
+                            if (f1.isSuccess()) {
+                                bindChannels(f.channel(), channel);
+                            } else {
+                                f.channel().close();
+                                channel.close();
+                            }
+                        });
+                    } else {
+                        channel.close();
+                    }
+                });
+            }
+        });
+
+        this.payload = new byte[this.size];
+        ThreadLocalRandom.current().nextBytes(this.payload);
+        this.received = new byte[this.size];
+
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(this.frontend.localAddress());
+        this.out = this.socket.getOutputStream();
+        this.in = new DataInputStream(this.socket.getInputStream());
+
+        this.roundTrip(); //make sure the tunnel is fully set up
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        this.socket.close();
+        this.frontend.close().syncUninterruptibly();
+        this.backend.close().syncUninterruptibly();
+        this.echo.close().syncUninterruptibly();
+        this.group.shutdownGracefully(0L, 0L, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    protected Channel listen(ChannelInitializer<Channel> initializer) {
+        return new ServerBootstrap().group(this.group)
+                .channelFactory(this.serverChannelFactory)
+                .childHandler(initializer)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, this.recvAllocator)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .bind(new InetSocketAddress("127.0.0.1", 0)).syncUninterruptibly().channel();
+    }
+
+    protected ChannelFuture connect(Channel server, SslContext context) {
+        return new Bootstrap().group(this.group)
+                .channelFactory(this.channelFactory)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        if (context != null) channel.pipeline().addLast("ssl", new SslHandler(context.newEngine(channel.alloc()), false));
+                        channel.pipeline()
+                                .addLast("handle", new ChannelInboundHandlerAdapter())
+                                .addLast("common", CommonHandler.INSTANCE);
+                    }
+                })
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, this.recvAllocator)
+                .option(ChannelOption.AUTO_READ, false)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .connect(server.localAddress());
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        //the echo is read back while it's still being written, as large payloads wouldn't fit into the socket buffers otherwise
+        Thread writer = null;
+        if (this.size > 65536) {
+            (writer = new Thread(this::writePayload)).start();
+        } else {
+            this.writePayload();
+        }
+        this.in.readFully(this.received);
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return this.received;
+    }
+
+    protected void writePayload() {
+        try {
+            this.out.write(this.payload);
+            this.out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package net.daporkchop.loopback;
 import net.daporkchop.lib.hash.util.Digest;
 import net.daporkchop.lib.logging.LogAmount;
 import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.bench.Bench;
 import net.daporkchop.loopback.client.Client;
 import net.daporkchop.loopback.server.Server;
 import net.daporkchop.loopback.util.Addr;
@@ -38,7 +39,57 @@ public final class Loopback {
         Logging.logger.info("Usage:")
                 .info("  java -jar loopback.jar client <password> <address>:<port>")
                 .info("or")
-                .info("  java -jar loopback.jar server <password> <port>");
+                .info("  java -jar loopback.jar server <password> <port>")
+                .info("or")
+                .info("  java -jar loopback.jar bench <connections> <seconds>")
+                .info("")
+                .info("System properties:")
+                .info("  -Dloopback.plaintext=true                  disable TLS (both ends must match)")
+                .info("  -Dloopback.transport=<name>                auto, io_uring, epoll or nio (falls back if unsupported)")
+                .info("  -Dloopback.splice.disable=true             don't splice plaintext connections on epoll (spliced data isn't counted in stats)")
+                .info("  -Dloopback.mux.links=<count>               multiplex connections over this many links (client)")
+                .info("  -Dloopback.mux.window=<bytes>              per-stream flow control window")
+                .info("  -Dloopback.mux.sctp=true                   carry links over SCTP (nio and plaintext only)")
+                .info("  -Dloopback.mux.sctpStreams=<n>             SCTP streams per link")
+                .info("  -Dloopback.quic=true                       open a QUIC stream for each connection (client and server)")
+                .info("  -Dloopback.quic.links=<count>              QUIC links to keep open (client)")
+                .info("  -Dloopback.quic.idleTimeout=<ms>           close idle QUIC links after this long")
+                .info("  -Dloopback.quic.window=<bytes>             QUIC flow control window per stream")
+                .info("  -Dloopback.quic.maxData=<bytes>            QUIC flow control window per link")
+                .info("  -Dloopback.quic.maxStreams=<n>             concurrent streams per QUIC link (server)")
+                .info("  -Dloopback.balance=<name>                  leastConn or roundRobin, for ports shared by several clients (server)")
+                .info("  -Dloopback.balance.weight=<n>              1-255, this client's share of connections on shared ports (client)")
+                .info("  -Dloopback.balance.failTimeout=<ms>        time to skip a client which keeps failing to set up connections (server)")
+                .info("  -Dloopback.compression=<name>              none, lz4 or zstd, default for forwards added without one (client)")
+                .info("  -Dloopback.compression.zstdLevel=<n>       zstd compression level")
+                .info("  -Dloopback.compression.skipMax=<bytes>     longest stretch sent uncompressed when data doesn't compress well")
+                .info("  -Dloopback.stripe.reorderMax=<bytes>       data buffered out of order per striped connection")
+                .info("  -Dloopback.udp.maxDatagram=<bytes>         longest datagram that can be forwarded")
+                .info("  -Dloopback.udp.batch=<n>                   datagrams read at once, where supported")
+                .info("  -Dloopback.udp.buffer=<bytes>              socket buffer size for forwarded datagrams")
+                .info("  -Dloopback.earlyData.max=<bytes>           first bytes sent along with a new connection, 0 to disable (server)")
+                .info("  -Dloopback.earlyData.wait=<ms>             time to wait for the first bytes, 0 to disable (server)")
+                .info("  -Dloopback.writeBuffer.low=<bytes>         write buffer low water mark")
+                .info("  -Dloopback.writeBuffer.high=<bytes>        write buffer high water mark")
+                .info("  -Dloopback.threads.boss=<n>                number of threads accepting connections")
+                .info("  -Dloopback.threads.control=<n>             number of threads handling control channels (client only on io_uring)")
+                .info("  -Dloopback.threads.io=<n>                  number of threads relaying data")
+                .info("  -Dloopback.timeout.setup=<ms>              time allowed for a connection to be set up")
+                .info("  -Dloopback.timeout.idle=<ms>               time a connection may be idle, 0 to disable")
+                .info("  -Dloopback.timeout.udpIdle=<ms>            time a UDP flow may be idle")
+                .info("  -Dloopback.dns.minTtl=<seconds>            minimum time to cache a resolved hostname (client)")
+                .info("  -Dloopback.dns.maxTtl=<seconds>            maximum time to cache a resolved hostname (client)")
+                .info("  -Dloopback.dns.negativeTtl=<seconds>       time to cache a failed lookup (client)")
+                .info("  -Dloopback.connect.attemptDelay=<ms>       delay before racing a target's next address (client)")
+                .info("  -Dloopback.metrics.port=<port>             serve Prometheus metrics on this port")
+                .info("  -Dloopback.metrics.host=<address>          address to serve metrics on")
+                .info("  -Dloopback.server.maxControlChannels=<n>   maximum number of connected clients (server)")
+                .info("  -Dloopback.server.maxWaitingChannels=<n>   maximum number of unbound connections per client (server)")
+                .info("  -Dloopback.server.maxUdpFlows=<n>          maximum number of UDP flows per client (server)")
+                .info("  -Dloopback.bench.payload=<bytes>           bytes sent by each benchmark connection")
+                .info("  -Dloopback.bench.target=<echo|sink>        whether the benchmark target echoes or discards data")
+                .info("  -Dloopback.bench.port=<port>               port used by the benchmark's server")
+                .info("  -Dloopback.bench.forwardPort=<port>        port forwarded by the benchmark's client");
         System.exit(0);
     }
 
@@ -47,6 +98,7 @@ public final class Loopback {
         if (args.length != 3) displayHelp();
 
         Endpoint endpoint = null;
+        Bench bench = null;
 
         try {
             byte[] hash = Digest.SHA_256.hash(args[1].getBytes(StandardCharsets.UTF_8)).getHash();
@@ -56,22 +108,15 @@ public final class Loopback {
                     if (!matcher.find()) throw new IllegalArgumentException(String.format("Invalid address:port (\"%s\")", args[2]));
                     Addr addr = new Addr(matcher.group(1), Integer.parseInt(matcher.group(2)));
 
-                    if (true) {
-                        Test.startClient(addr);
-                        System.exit(0);
-                    }
-
                     endpoint = new Client(hash, addr);
                 }
                 break;
                 case "server":
-                    if (true) {
-                        Test.startServer(Integer.parseInt(args[2]));
-                        System.exit(0);
-                    }
-
                     endpoint = new Server(hash, Integer.parseInt(args[2]));
                     break;
+                case "bench":
+                    bench = new Bench(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                    break;
                 default:
                     throw new IllegalArgumentException(String.format("Invalid mode (\"%s\")", args[0]));
             }
@@ -81,6 +126,15 @@ public final class Loopback {
             displayHelp();
         }
 
+        if (bench != null) {
+            try {
+                bench.run();
+            } finally {
+                shutdownEventLoops();
+            }
+            return;
+        }
+
         try {
             Logging.logger.info("Starting...");
             endpoint.start();
@@ -95,7 +149,7 @@ public final class Loopback {
             try {
                 endpoint.close().syncUninterruptibly();
             } finally {
-                GROUP.shutdownGracefully();
+                shutdownEventLoops();
             }
         }
     }
@@ -0,0 +1,235 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.bench;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import lombok.Getter;
+import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.server.Server;
+import net.daporkchop.loopback.util.Addr;
+import net.daporkchop.loopback.util.Timeouts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Measures the performance of a complete tunnel by starting a server, a client and a target application in-process, then opening
+ * connections to a forward from a number of concurrent load clients over localhost for a fixed amount of time.
+ * <p>
+ * Each load client opens one connection at a time, waits for the target to greet it, sends the payload and waits for the target's response
+ * before opening the next one. The setup latency is the time between starting a connection and receiving the greeting, which includes the
+ * whole round trip through the tunnel.
+ * <p>
+ * Everything shares the same event loops, so the results are a lower bound for what a dedicated host can handle.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class Bench {
+    public static final int     SERVER_PORT  = Integer.getInteger("loopback.bench.port", 59989);
+    public static final int     FORWARD_PORT = Integer.getInteger("loopback.bench.forwardPort", 59990);
+    public static final int     PAYLOAD      = Integer.getInteger("loopback.bench.payload", 64 << 10); //bytes sent by each connection
+    public static final boolean SINK         = "sink".equals(System.getProperty("loopback.bench.target", "echo")); //echo or sink
+
+    protected final int     concurrency;
+    protected final long    duration; //nanoseconds
+    protected final boolean sink = SINK;
+    protected final ByteBuf payload;
+
+    protected final LongAdder completed = new LongAdder();
+    protected final LongAdder failed    = new LongAdder();
+
+    protected long[] setupTimes = new long[1024];
+    protected int    setupCount;
+
+    protected Bootstrap      loadBootstrap;
+    protected CountDownLatch running;
+    protected long           deadline;
+
+    public Bench(int concurrency, int seconds) {
+        if (concurrency <= 0) throw new IllegalArgumentException(String.format("Invalid number of connections (%d)", concurrency));
+        if (seconds <= 0) throw new IllegalArgumentException(String.format("Invalid duration (%d)", seconds));
+        if (PAYLOAD < 0) throw new IllegalArgumentException(String.format("Invalid payload size (%d)", PAYLOAD));
+
+        this.concurrency = concurrency;
+        this.duration = TimeUnit.SECONDS.toNanos(seconds);
+
+        byte[] payload = new byte[PAYLOAD];
+        ThreadLocalRandom.current().nextBytes(payload);
+        this.payload = Unpooled.directBuffer(PAYLOAD).writeBytes(payload);
+    }
+
+    public void run() {
+        byte[] password = new byte[PASSWORD_BYTES];
+        ThreadLocalRandom.current().nextBytes(password);
+
+        Channel target = new ServerBootstrap().group(BOSS_GROUP, GROUP)
+                .channelFactory(SERVER_CHANNEL_FACTORY)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast("handle", new BenchTargetHandler(Bench.this.sink, PAYLOAD));
+                    }
+                })
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, RECV_BUF_ALLOCATOR)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .bind(InetAddress.getLoopbackAddress(), 0).syncUninterruptibly().channel();
+
+        Server server = new Server(password, SERVER_PORT);
+        Client client = new Client(password, new Addr(InetAddress.getLoopbackAddress().getHostAddress(), SERVER_PORT));
+        //each endpoint is started outside of the block that closes it, so that a failed start isn't hidden by close() failing as well
+        try {
+            server.start();
+            try {
+                client.start();
+                try {
+                    this.awaitControlChannel(client);
+                    client.handleCommand(String.format("add %d %s:%d", FORWARD_PORT,
+                            InetAddress.getLoopbackAddress().getHostAddress(), ((InetSocketAddress) target.localAddress()).getPort()));
+                    this.awaitForward();
+
+                    this.loadBootstrap = new Bootstrap().group(GROUP)
+                            .channelFactory(CLIENT_CHANNEL_FACTORY)
+                            .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                            .option(ChannelOption.RCVBUF_ALLOCATOR, RECV_BUF_ALLOCATOR)
+                            .option(ChannelOption.TCP_NODELAY, true)
+                            .remoteAddress(InetAddress.getLoopbackAddress(), FORWARD_PORT);
+
+                    Logging.logger.info("Running %d load clients for %d seconds...", this.concurrency, TimeUnit.NANOSECONDS.toSeconds(this.duration));
+                    this.running = new CountDownLatch(this.concurrency);
+                    long startTime = System.nanoTime();
+                    this.deadline = startTime + this.duration;
+                    for (int i = 0; i < this.concurrency; i++) this.connect();
+
+                    try {
+                        if (!this.running.await(this.duration + TimeUnit.MILLISECONDS.toNanos(Timeouts.SETUP_TIMEOUT), TimeUnit.NANOSECONDS)) {
+                            Logging.logger.warn("%d load clients didn't finish in time!", this.running.getCount());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    this.report(System.nanoTime() - startTime);
+                    server.metrics().print(Logging.logger);
+                } finally {
+                    client.close().syncUninterruptibly();
+                }
+            } finally {
+                server.close().syncUninterruptibly();
+            }
+        } finally {
+            target.close().syncUninterruptibly();
+            this.payload.release();
+        }
+    }
+
+    protected void connect() {
+        if (System.nanoTime() - this.deadline >= 0L) {
+            this.running.countDown();
+            return;
+        }
+
+        BenchLoadHandler handler = new BenchLoadHandler(this, System.nanoTime());
+        this.loadBootstrap.clone().handler(handler).connect().addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                f.channel().closeFuture().addListener(f1 -> {
+                    (handler.completed() ? this.completed : this.failed).increment();
+                    this.connect();
+                });
+            } else {
+                this.failed.increment();
+                f.channel().close();
+                this.connect();
+            }
+        });
+    }
+
+    protected synchronized void recordSetup(long nanos) {
+        if (this.setupCount == this.setupTimes.length) this.setupTimes = Arrays.copyOf(this.setupTimes, this.setupCount << 1);
+        this.setupTimes[this.setupCount++] = nanos;
+    }
+
+    protected synchronized void report(long elapsed) {
+        long completed = this.completed.sum();
+        double seconds = elapsed / 1_000_000_000.0d;
+        long[] setupTimes = Arrays.copyOf(this.setupTimes, this.setupCount);
+        Arrays.sort(setupTimes);
+
+        Logging.logger.info("Benchmark results (%d load clients, %d byte payload, %s target, %s transport):", this.concurrency, PAYLOAD, this.sink ? "sink" : "echo", TRANSPORT)
+                .info("  %d connections completed and %d failed in %.2f seconds", completed, this.failed.sum(), seconds)
+                .info("  %.1f connections/s", completed / seconds)
+                .info("  setup latency: p50 %.3fms, p99 %.3fms, p999 %.3fms",
+                        quantile(setupTimes, 0.5d) / 1_000_000.0d, quantile(setupTimes, 0.99d) / 1_000_000.0d, quantile(setupTimes, 0.999d) / 1_000_000.0d)
+                .info("  %.2f MB/s", completed * PAYLOAD * (this.sink ? 1.0d : 2.0d) / 1_000_000.0d / seconds);
+    }
+
+    protected static long quantile(long[] sorted, double quantile) {
+        return sorted.length == 0 ? 0L : sorted[Math.max((int) Math.ceil(sorted.length * quantile) - 1, 0)];
+    }
+
+    protected void awaitControlChannel(Client client) {
+        long deadline = System.currentTimeMillis() + Timeouts.SETUP_TIMEOUT;
+        while (client.controlChannel() == null || !client.controlChannel().hasAttr(ATTR_ID)) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("Control channel didn't connect!");
+            sleep(10L);
+        }
+    }
+
+    protected void awaitForward() {
+        //the forward is only usable once the server has bound it, so keep trying until the target greets us through the tunnel
+        long deadline = System.currentTimeMillis() + Timeouts.SETUP_TIMEOUT;
+        while (true) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), FORWARD_PORT)) {
+                socket.setSoTimeout((int) Timeouts.SETUP_TIMEOUT);
+                InputStream in = socket.getInputStream();
+                if (in.read() >= 0) return;
+            } catch (IOException e) {
+                //not ready yet
+            }
+
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("Forward didn't become ready!");
+            sleep(100L);
+        }
+    }
+
+    protected static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
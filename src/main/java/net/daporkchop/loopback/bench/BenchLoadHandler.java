@@ -0,0 +1,79 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.NonNull;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A single connection made by one of the benchmark's load clients.
+ * <p>
+ * The connection waits for the target's greeting, which marks the end of the tunnel's setup, then sends the payload and waits for the
+ * target's response before closing.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+final class BenchLoadHandler extends ChannelInboundHandlerAdapter {
+    @NonNull
+    protected final Bench bench;
+    protected final long  startTime; //System.nanoTime() when the connection was started
+
+    protected boolean greeted;
+    protected boolean completed;
+    protected long    remaining; //number of response bytes left until the connection is complete
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (this.completed) return;
+
+            ByteBuf buf = (ByteBuf) msg;
+            if (!this.greeted) {
+                this.greeted = true;
+                this.bench.recordSetup(System.nanoTime() - this.startTime);
+                buf.skipBytes(1);
+
+                if (this.bench.payload().readableBytes() == 0) {
+                    this.complete(ctx);
+                    return;
+                }
+                this.remaining = this.bench.sink() ? 1L : this.bench.payload().readableBytes();
+                ctx.writeAndFlush(this.bench.payload().retainedDuplicate());
+            }
+
+            if (buf.isReadable() && (this.remaining -= buf.readableBytes()) <= 0L) this.complete(ctx);
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        ctx.close();
+    }
+
+    protected void complete(@NonNull ChannelHandlerContext ctx) {
+        this.completed = true;
+        ctx.close();
+    }
+}
@@ -15,30 +15,63 @@
 
 package net.daporkchop.loopback.client;
 
+import com.sun.nio.sctp.SctpStandardSocketOptions;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.sctp.SctpChannelOption;
+import io.netty.channel.sctp.nio.NioSctpChannel;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.ssl.SslHandler;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicClientCodecBuilder;
+import io.netty.incubator.codec.quic.QuicSslContext;
+import io.netty.incubator.codec.quic.QuicSslEngine;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.incubator.codec.quic.QuicStreamType;
 import io.netty.util.collection.IntObjectHashMap;
 import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import net.daporkchop.lib.logging.Logger;
 import net.daporkchop.lib.logging.Logging;
 import net.daporkchop.loopback.client.backend.BackendChannelInitializerClient;
+import net.daporkchop.loopback.client.backend.ClientMuxLinkHandler;
+import net.daporkchop.loopback.client.backend.QuicStreamChannelInitializer;
+import net.daporkchop.loopback.client.backend.ReadyChannelPool;
+import net.daporkchop.loopback.client.backend.SctpLinkChannelInitializer;
 import net.daporkchop.loopback.client.target.TargetChannelInitializer;
+import net.daporkchop.loopback.client.target.TargetConnector;
+import net.daporkchop.loopback.common.compression.Compression;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.common.metrics.Metrics;
+import net.daporkchop.loopback.common.metrics.MetricsHttpHandler;
+import net.daporkchop.loopback.common.stripe.StripedRelay;
 import net.daporkchop.loopback.util.Addr;
 import net.daporkchop.loopback.util.Endpoint;
+import net.daporkchop.loopback.util.SslContexts;
+import net.daporkchop.loopback.util.Transport;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,8 +83,8 @@ import static net.daporkchop.loopback.util.Constants.*;
 @RequiredArgsConstructor
 @Getter
 public final class Client implements Endpoint {
-    private static final Pattern PATTERN_ADD_COMMAND    = Pattern.compile("^add ([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5]) ([^:]+):([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5])$");
-    private static final Pattern PATTERN_REMOVE_COMMAND = Pattern.compile("^remove ([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5])$");
+    private static final Pattern PATTERN_ADD_COMMAND    = Pattern.compile("^add (udp )?([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5]) ([^:]+):([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5])(?: (none|lz4|zstd))?(?: stripes=([0-9]{1,3}))?$");
+    private static final Pattern PATTERN_REMOVE_COMMAND = Pattern.compile("^remove (udp )?([0-9]{1,4}|[0-5][0-9]{4}|6[0-5]{2}[0-3][0-5])$");
 
     @NonNull
     protected final byte[] password;
@@ -63,26 +96,46 @@ public final class Client implements Endpoint {
     protected ChannelGroup channels;
     protected Bootstrap    bootstrap;
     protected Bootstrap    targetBootstrap;
+    protected Bootstrap    linkBootstrap;
+    protected Bootstrap    udpLinkBootstrap;
+    protected Bootstrap    udpBootstrap;
+    protected Bootstrap    quicBootstrap;
+
+    protected QuicStreamChannelInitializer quicStreamInitializer;
 
     private volatile SocketChannel      controlChannel;
     private          IntObjectMap<Addr> targetAddresses;
+    private          IntObjectMap<Addr> udpTargetAddresses;
+    private          ReadyChannelPool   readyChannels;
+    private          Channel            udpLink;
+
+    private          int                quicLinkIndex;
+
+    @Setter
+    private volatile int serverCompression; //bitmask of the compression algorithms supported by the server
 
-    //private final Queue<Channel> readyChannels = new ConcurrentLinkedQueue<>();
+    private final List<ClientMuxLinkHandler> muxLinks  = new CopyOnWriteArrayList<>();
+    private final List<QuicChannel>          quicLinks = new CopyOnWriteArrayList<>();
+    private final Metrics                    metrics   = new Metrics();
 
     @Override
     public synchronized void start() {
         if (this.channels != null) throw new IllegalStateException();
+        if (MUX_SCTP && (TRANSPORT != Transport.NIO || !PLAINTEXT)) throw new IllegalStateException("SCTP links require the nio transport and plaintext mode!");
 
         this.channels = new DefaultChannelGroup(GROUP.next());
         this.targetAddresses = new IntObjectHashMap<>();
+        this.udpTargetAddresses = new IntObjectHashMap<>();
+        this.readyChannels = new ReadyChannelPool(this);
 
         this.controlCloseHandler = f -> {
             Logging.logger.error("Control channel disconnected from %s, attempting to reconnect in %d seconds...", this.serverAddress, CLIENT_RECONNECT_DELAY);
+            this.readyChannels.clear();
             ChannelGroupFuture channelsFuture = this.channels.close();
             //don't try to reconnect until all channels are closed
-            GROUP.next().schedule(() -> channelsFuture.addListener(f1 -> {
+            CONTROL_GROUP.next().schedule(() -> channelsFuture.addListener(f1 -> {
                 Logging.logger.info("Control channel attempting to reconnect...");
-                this.bootstrap.connect(this.serverAddress.host(), this.serverAddress.port());
+                this.bootstrap.clone(CONTROL_GROUP).connect(this.serverAddress.host(), this.serverAddress.port());
             }), CLIENT_RECONNECT_DELAY, TimeUnit.SECONDS);
         };
 
@@ -90,29 +143,99 @@ public final class Client implements Endpoint {
                 .channelFactory(CLIENT_CHANNEL_FACTORY)
                 .handler(new BackendChannelInitializerClient(this))
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, RECV_BUF_ALLOCATOR)
                 .option(ChannelOption.AUTO_READ, false)
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
-                .attr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER);
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .attr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                .resolver(RESOLVER);
 
-        this.bootstrap.connect(this.serverAddress.host(), this.serverAddress.port()).syncUninterruptibly();
+        //the control channel is connected using the same bootstrap as data channels, but on its own event loop group
+        this.bootstrap.clone(CONTROL_GROUP).connect(this.serverAddress.host(), this.serverAddress.port()).syncUninterruptibly();
+
+        Channel metricsListener = MetricsHttpHandler.bind(this.metrics);
+        if (metricsListener != null) this.channels.add(metricsListener);
 
         this.targetBootstrap = this.bootstrap.clone()
                 .remoteAddress(null)
                 .handler(new TargetChannelInitializer(this));
+
+        if (MUX_SCTP) {
+            this.linkBootstrap = new Bootstrap().group(GROUP)
+                    .channelFactory(NioSctpChannel::new)
+                    .handler(new SctpLinkChannelInitializer(this))
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(ChannelOption.AUTO_READ, false)
+                    .option(SctpChannelOption.SCTP_INIT_MAXSTREAMS, SctpStandardSocketOptions.InitMaxStreams.create(MUX_SCTP_STREAMS, MUX_SCTP_STREAMS))
+                    .option(SctpChannelOption.SCTP_NODELAY, true)
+                    .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                    .attr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                    .attr(ATTR_LINK, CHANNEL_MUX_LINK)
+                    .resolver(RESOLVER);
+        } else {
+            this.linkBootstrap = this.bootstrap.clone()
+                    .attr(ATTR_LINK, CHANNEL_MUX_LINK);
+        }
+        this.udpLinkBootstrap = this.bootstrap.clone()
+                .attr(ATTR_LINK, CHANNEL_UDP_LINK);
+
+        //the event loop is chosen for each flow
+        this.udpBootstrap = TRANSPORT.datagramOptions(new Bootstrap(), UDP_MAX_DATAGRAM, UDP_READ_BATCH)
+                .channelFactory(DATAGRAM_CHANNEL_FACTORY)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_RCVBUF, UDP_BUFFER)
+                .option(ChannelOption.SO_SNDBUF, UDP_BUFFER)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .attr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                .resolver(RESOLVER);
+
+        if (QUIC) {
+            //each link gets a datagram channel of its own, so that links are spread across event loops and each has its own source port
+            QuicClientCodecBuilder codecBuilder = new QuicClientCodecBuilder()
+                    .sslEngineProvider(new Function<QuicChannel, QuicSslEngine>() {
+                        private final QuicSslContext context = SslContexts.quicClient();
+
+                        @Override
+                        public QuicSslEngine apply(QuicChannel channel) {
+                            //the engine is created with the server's address so that previous sessions can be resumed
+                            return this.context.newEngine(channel.alloc(), Client.this.serverAddress.host(), Client.this.serverAddress.port());
+                        }
+                    })
+                    .maxIdleTimeout(QUIC_IDLE_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .initialMaxData(QUIC_MAX_DATA)
+                    .initialMaxStreamDataBidirectionalLocal(QUIC_WINDOW)
+                    .initialMaxStreamDataBidirectionalRemote(QUIC_WINDOW);
+            this.quicBootstrap = new Bootstrap().group(GROUP)
+                    .channelFactory(DATAGRAM_CHANNEL_FACTORY)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel channel) throws Exception {
+                            Client.this.channels.add(channel);
+                            channel.pipeline().addLast("quic", codecBuilder.build());
+                        }
+                    })
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(ChannelOption.SO_RCVBUF, UDP_BUFFER)
+                    .option(ChannelOption.SO_SNDBUF, UDP_BUFFER);
+            this.quicStreamInitializer = new QuicStreamChannelInitializer(this);
+        }
     }
 
     @Override
     public synchronized Future<Void> close() {
         if (this.channels == null) throw new IllegalStateException();
 
-        this.targetBootstrap = this.bootstrap = null;
-        this.targetAddresses = null;
+        this.quicBootstrap = this.udpBootstrap = this.udpLinkBootstrap = this.linkBootstrap = this.targetBootstrap = this.bootstrap = null;
+        this.udpTargetAddresses = this.targetAddresses = null;
 
         Channel controlChannel = this.controlChannel;
         if (controlChannel != null) controlChannel.closeFuture().removeListener(this.controlCloseHandler);
         this.controlCloseHandler = null;
 
+        this.readyChannels.clear();
+        this.readyChannels = null;
+
         return this.channels.close().addListener(f -> this.channels = null);
     }
 
@@ -121,27 +244,53 @@ public final class Client implements Endpoint {
         if (this.channels == null) throw new IllegalStateException();
 
         if ("forwards".equals(command)) {
-            Logging.logger.info("%d active forwards:", this.targetAddresses.size());
-            this.targetAddresses.forEach((port, dst) -> Logging.logger.info("  :%d -> %s:%d", port, dst.host(), dst.port()));
+            Logging.logger.info("%d active forwards:", this.targetAddresses.size() + this.udpTargetAddresses.size());
+            this.targetAddresses.forEach((port, dst) -> Logging.logger.info("  :%d -> %s:%d%s%s", port, dst.host(), dst.port(),
+                    dst.compression() != Compression.NONE ? " (" + dst.compression().name().toLowerCase() + ')' : "",
+                    dst.stripes() > 1 ? " (" + dst.stripes() + " stripes)" : ""));
+            this.udpTargetAddresses.forEach((port, dst) -> Logging.logger.info("  :%d/udp -> %s:%d", port, dst.host(), dst.port()));
             return false;
         }
 
         Matcher matcher;
         if ((matcher = PATTERN_ADD_COMMAND.matcher(command)).find()) {
-            int sourcePort = Integer.parseInt(matcher.group(1));
-            String dstAddress = matcher.group(2);
-            int dstPort = Integer.parseInt(matcher.group(3));
+            boolean udp = matcher.group(1) != null;
+            int sourcePort = Integer.parseInt(matcher.group(2));
+            String dstAddress = matcher.group(3);
+            int dstPort = Integer.parseInt(matcher.group(4));
+            Compression compression = matcher.group(5) != null ? Compression.parse(matcher.group(5)) : COMPRESSION;
+            if (compression != Compression.NONE && (udp || !compression.isAvailable())) {
+                Logging.logger.error("%s compression can't be used for %s forwards!", compression.name().toLowerCase(), udp ? "udp" : "tcp");
+                return false;
+            }
+            int stripes = matcher.group(6) != null ? Integer.parseInt(matcher.group(6)) : 1;
+            if (stripes < 1 || stripes > STRIPE_MAX || (udp && stripes != 1)) {
+                Logging.logger.error("%s forwards can't be striped across %d data channels!", udp ? "udp" : "tcp", stripes);
+                return false;
+            }
 
-            this.targetAddresses.put(sourcePort, new Addr(dstAddress, dstPort));
-            this.controlChannel.writeAndFlush(this.controlChannel.alloc().ioBuffer(3).writeByte(CONTROL_ADD).writeShort(sourcePort));
+            if ((udp ? this.udpTargetAddresses : this.targetAddresses).containsKey(sourcePort)) {
+                Logging.logger.error("A %s forward is already registered on port %d!", udp ? "udp" : "tcp", sourcePort);
+                return false;
+            }
+
+            (udp ? this.udpTargetAddresses : this.targetAddresses).put(sourcePort, new Addr(dstAddress, dstPort)
+                    .compression(udp ? Compression.NONE : compression)
+                    .stripes(stripes));
+            this.metrics.forward(sourcePort, udp, dstAddress + ':' + dstPort);
+            ByteBuf frame = beginFrame(this.controlChannel.alloc(), 4).writeByte(udp ? CONTROL_ADD_UDP : CONTROL_ADD).writeShort(sourcePort);
+            if (!udp) frame.writeByte(BALANCE_WEIGHT);
+            this.controlChannel.writeAndFlush(endFrame(frame));
+            if (udp) this.openUdpLink();
             return false;
         } else if ((matcher = PATTERN_REMOVE_COMMAND.matcher(command)).find()) {
-            int sourcePort = Integer.parseInt(matcher.group(1));
+            boolean udp = matcher.group(1) != null;
+            int sourcePort = Integer.parseInt(matcher.group(2));
 
-            if (this.targetAddresses.containsKey(sourcePort)) {
-                this.controlChannel.writeAndFlush(this.controlChannel.alloc().ioBuffer(3).writeByte(CONTROL_REMOVE).writeShort(sourcePort));
+            if ((udp ? this.udpTargetAddresses : this.targetAddresses).containsKey(sourcePort)) {
+                this.controlChannel.writeAndFlush(endFrame(beginFrame(this.controlChannel.alloc(), 3).writeByte(udp ? CONTROL_REMOVE_UDP : CONTROL_REMOVE).writeShort(sourcePort)));
             } else {
-                Logging.logger.error("No connection registered on port %d!", sourcePort);
+                Logging.logger.error("No %s forward registered on port %d!", udp ? "udp" : "tcp", sourcePort);
             }
             return false;
         }
@@ -153,29 +302,300 @@ public final class Client implements Endpoint {
     public void printHelp(@NonNull Logger logger) {
         Endpoint.super.printHelp(logger);
         logger.info("  forwards")
-                .info("  add <remote port> <local address>:<local port>")
-                .info("  remove <remote port>");
+                .info("  add [udp] <remote port> <local address>:<local port> [none|lz4|zstd] [stripes=<n>]")
+                .info("  remove [udp] <remote port>");
     }
 
-    public synchronized void handleConnectionRequest(long remoteId, int srcPort) {
+    /**
+     * Connects to the target of a forward for a new incoming connection, and binds it to a new stream or data channel.
+     *
+     * @param earlyData the first bytes sent by the incoming connection, which are written to the target as soon as it's connected. May be
+     *                  {@code null}, and is always released
+     */
+    public synchronized void handleConnectionRequest(long remoteId, int srcPort, ByteBuf earlyData) {
         Addr dst = this.targetAddresses.get(srcPort);
-        if (dst == null) throw new IllegalArgumentException(Integer.toUnsignedString(srcPort));
+        if (dst == null) {
+            if (earlyData != null) earlyData.release();
+            throw new IllegalArgumentException(Integer.toUnsignedString(srcPort));
+        }
+
+        long startTime = System.nanoTime();
+        ForwardStats stats = this.metrics.get(srcPort, false);
+        Bootstrap targetBootstrap = this.targetBootstrap;
+
+        if (dst.stripes() > 1) {
+            //streams on a link or a QUIC connection share a single congestion window, so striping only makes sense over separate data channels
+            this.connectStriped(remoteId, dst, stats, startTime, earlyData);
+            return;
+        }
+
+        //the target channel is always connected on the same event loop as the channel it will be bound to, so relaying never crosses threads
+        ClientMuxLinkHandler link = this.selectMuxLink();
+        if (link != null) {
+            //open a new stream on an existing link rather than opening a whole new data channel
+            this.connectTarget(targetBootstrap, remoteId, dst, link.channel().eventLoop(), stats, startTime, earlyData).addListener((FutureListener<Channel>) dstFuture -> {
+                if (dstFuture.isSuccess()) link.attach(remoteId, dstFuture.getNow(), true);
+            });
+            return;
+        }
+
+        //the target is connected while the data channel is being set up, rather than only once it's ready. whichever one is done first doesn't
+        // read anything until both are bound together, so the other one only has to wait in the kernel's socket buffer
+        EventLoop loop;
+        Future<Channel> serverFuture;
+        QuicChannel quicLink = this.selectQuicLink();
+        if (quicLink != null) {
+            //a new stream doesn't need a round trip before it can be used, so there's no need to keep any of them ready
+            loop = quicLink.eventLoop();
+            serverFuture = this.openQuicStream(quicLink);
+        } else {
+            loop = GROUP.next();
+            serverFuture = this.readyChannels.acquire(loop);
+            if (serverFuture.isSuccess()) loop = serverFuture.getNow().eventLoop();
+        }
+        Future<Channel> targetFuture = this.connectTarget(targetBootstrap, remoteId, dst, loop, stats, startTime, earlyData);
+
+        //there's no point in waiting for the target if there's nothing to bind it to. if the target already failed by itself, the server has
+        // been told about it already
+        serverFuture.addListener(f -> {
+            if (!f.isSuccess() && (targetFuture.cancel(false) || targetFuture.isSuccess())) {
+                if (targetFuture.isSuccess()) targetFuture.getNow().close();
+                this.refuseConnection(remoteId);
+            }
+        });
+        targetFuture.addListener(f -> serverFuture.addListener((FutureListener<Channel>) f1 -> {
+            if (f1.isSuccess() && f.isSuccess()) {
+                //only use compression if the server supports it, the channel is never compressed otherwise
+                Compression compression = dst.compression().isIn(this.serverCompression) ? dst.compression() : Compression.NONE;
+                Channel channel = f1.getNow();
+                channel.writeAndFlush(endFrame(beginFrame(channel.alloc(), CHANNEL_ID_BYTES).writeLong(remoteId).writeByte(compression.id())
+                        .writeByte(0).writeByte(1)));
+                compression.install(channel);
+                bindChannels(targetFuture.getNow(), channel);
+            } else if (f1.isSuccess()) {
+                //the target couldn't be connected to, a data channel which was never used can still be used for another connection
+                if (quicLink != null) {
+                    f1.getNow().close();
+                } else {
+                    this.readyChannels.release(f1.getNow());
+                }
+            } else {
+                Logging.logger.error("Unable to open data channel to %s!", this.serverAddress);
+            }
+        }));
+    }
+
+    /**
+     * Connects to the target of a striped forward, and binds it to the given number of new data channels at once.
+     */
+    protected void connectStriped(long remoteId, @NonNull Addr dst, ForwardStats stats, long startTime, ByteBuf earlyData) {
+        int count = dst.stripes();
+        EventLoop loop = GROUP.next();
+        List<Future<Channel>> stripeFutures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) stripeFutures.add(this.readyChannels.acquire(loop));
+        Future<Channel> targetFuture = this.connectTarget(this.targetBootstrap, remoteId, dst, loop, stats, startTime, earlyData);
+
+        AtomicInteger remaining = new AtomicInteger(count + 1);
+        FutureListener<Channel> listener = f -> {
+            if (remaining.decrementAndGet() != 0) return;
+
+            boolean stripesReady = stripeFutures.stream().allMatch(Future::isSuccess);
+            if (stripesReady && targetFuture.isSuccess()) {
+                Compression compression = dst.compression().isIn(this.serverCompression) ? dst.compression() : Compression.NONE;
+                StripedRelay relay = new StripedRelay(targetFuture.getNow(), count, false);
+                for (int i = 0; i < count; i++) {
+                    int index = i;
+                    Channel channel = stripeFutures.get(i).getNow();
+                    channel.eventLoop().execute(() -> {
+                        //the channel ID has to be written before the compression is installed, as it's never compressed
+                        channel.writeAndFlush(endFrame(beginFrame(channel.alloc(), CHANNEL_ID_BYTES).writeLong(remoteId).writeByte(compression.id())
+                                .writeByte(index).writeByte(count)));
+                        compression.install(channel);
+                        relay.attach(channel, index);
+                    });
+                }
+            } else {
+                if (targetFuture.isSuccess()) { //otherwise the server has already been told about the target failing
+                    targetFuture.getNow().close();
+                    this.refuseConnection(remoteId);
+                }
+                stripeFutures.stream().filter(Future::isSuccess).forEach(stripeFuture -> this.readyChannels.release(stripeFuture.getNow()));
+                if (!stripesReady) Logging.logger.error("Unable to open data channels to %s!", this.serverAddress);
+            }
+        };
+        targetFuture.addListener(listener);
+        stripeFutures.forEach(stripeFuture -> stripeFuture.addListener(listener));
+    }
 
-        //TODO: keep a certain number of channels open and ready at all times
-        //ChannelFuture toServer = this.bootstrap.connect(SERVER_ADDRESS);
-        //ChannelFuture toDst = this.targetBootstrap.connect(dst.host(), dst.port());
-        this.targetBootstrap.connect(dst.host(), dst.port()).addListener((ChannelFutureListener) dstFuture -> {
+    protected Future<Channel> connectTarget(@NonNull Bootstrap targetBootstrap, long remoteId, @NonNull Addr dst, @NonNull EventLoop loop, ForwardStats stats, long startTime, ByteBuf earlyData) {
+        return TargetConnector.connect(targetBootstrap.clone(loop), dst, loop).addListener((FutureListener<Channel>) dstFuture -> {
             if (dstFuture.isSuccess()) {
-                this.bootstrap.connect(this.serverAddress.host(), this.serverAddress.port()).addListener((ChannelFutureListener) serverFuture -> {
-                    serverFuture.channel().pipeline().get(SslHandler.class).handshakeFuture().addListener(f -> {
-                        serverFuture.channel().writeAndFlush(serverFuture.channel().alloc().ioBuffer(8).writeLong(remoteId));
-                        bindChannels(dstFuture.channel(), serverFuture.channel());
+                Channel target = dstFuture.getNow();
+                if (stats != null) {
+                    target.attr(ATTR_STATS).set(stats);
+                    target.attr(ATTR_SETUP_START).set(startTime);
+                    stats.connectionOpened();
+                    target.closeFuture().addListener(f -> {
+                        stats.connectionClosed();
+                        if (!target.hasAttr(ATTR_BOUND)) stats.setupFailed();
                     });
+                }
+                if (earlyData != null) {
+                    //this listener runs before the target is bound, so anything relayed later on is written after the early data
+                    if (stats != null) stats.transferred(true, earlyData.readableBytes());
+                    target.writeAndFlush(earlyData, target.voidPromise());
+                }
+            } else {
+                if (stats != null) stats.setupFailed();
+                if (earlyData != null) earlyData.release();
+                if (!dstFuture.isCancelled()) { //whoever cancelled it is responsible for telling the server
+                    Logging.logger.error("Unable to connect to %s:%d: %s", dst.host(), dst.port(), dstFuture.cause());
+                    this.refuseConnection(remoteId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells the server that an incoming connection couldn't be set up, so that it's closed right away instead of once it times out.
+     */
+    protected void refuseConnection(long remoteId) {
+        Channel controlChannel = this.controlChannel;
+        if (controlChannel != null) {
+            controlChannel.writeAndFlush(endFrame(beginFrame(controlChannel.alloc(), 9).writeByte(CONTROL_REFUSE).writeLong(remoteId)));
+        }
+    }
+
+    public void openMuxLink() {
+        Bootstrap linkBootstrap = this.linkBootstrap;
+        if (linkBootstrap == null) return;
+
+        linkBootstrap.connect(this.serverAddress.host(), this.serverAddress.port()).addListener((ChannelFutureListener) f -> {
+            //re-open the link later if it goes away while the control channel is still up
+            Channel controlChannel = this.controlChannel;
+            if (controlChannel != null) {
+                (f.isSuccess() ? f.channel().closeFuture() : f).addListener(f1 -> {
+                    if (controlChannel == this.controlChannel && controlChannel.isActive()) {
+                        controlChannel.eventLoop().schedule(this::openMuxLink, CLIENT_RECONNECT_DELAY, TimeUnit.SECONDS);
+                    }
                 });
+            }
+        });
+    }
+
+    /**
+     * Opens a new QUIC link.
+     * <p>
+     * The link is re-opened if it goes away while the control channel is still up.
+     */
+    public void openQuicLink() {
+        Bootstrap quicBootstrap = this.quicBootstrap;
+        Channel controlChannel = this.controlChannel;
+        if (quicBootstrap == null || controlChannel == null) return;
+
+        EventLoop loop = GROUP.next();
+        quicBootstrap.clone(loop).bind(0).addListener((ChannelFutureListener) bindFuture -> {
+            (bindFuture.isSuccess() ? bindFuture.channel().closeFuture() : bindFuture).addListener(f -> {
+                if (controlChannel == this.controlChannel && controlChannel.isActive()) {
+                    controlChannel.eventLoop().schedule(this::openQuicLink, CLIENT_RECONNECT_DELAY, TimeUnit.SECONDS);
+                }
+            });
+            if (!bindFuture.isSuccess()) return;
+
+            Channel datagramChannel = bindFuture.channel();
+            RESOLVER.getResolver(loop).resolve(InetSocketAddress.createUnresolved(this.serverAddress.host(), this.serverAddress.port()))
+                    .addListener((FutureListener<InetSocketAddress>) resolveFuture -> {
+                        if (!resolveFuture.isSuccess()) {
+                            Logging.logger.error("Unable to resolve %s: %s", this.serverAddress.host(), resolveFuture.cause());
+                            datagramChannel.close();
+                            return;
+                        }
+
+                        QuicChannel.newBootstrap(datagramChannel)
+                                .handler(new ChannelInboundHandlerAdapter())
+                                .streamOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                                .streamOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                                .remoteAddress(resolveFuture.getNow())
+                                .connect().addListener((FutureListener<QuicChannel>) f -> {
+                            if (f.isSuccess()) {
+                                QuicChannel link = f.getNow();
+                                Logging.logger.debug("QUIC link connected to %s", link.remoteSocketAddress());
+                                this.quicLinks.add(link);
+                                link.closeFuture().addListener(f1 -> {
+                                    this.quicLinks.remove(link);
+                                    datagramChannel.close();
+                                });
+                            } else {
+                                Logging.logger.error("Unable to open QUIC link to %s: %s", this.serverAddress, f.cause());
+                                datagramChannel.close();
+                            }
+                        });
+                    });
+        });
+    }
+
+    /**
+     * Opens a new stream on a QUIC link, which is identified just like a new data channel.
+     *
+     * @return a future that will be completed with the stream on the link's event loop
+     */
+    protected Future<Channel> openQuicStream(@NonNull QuicChannel link) {
+        long controlId = this.controlChannel.attr(ATTR_ID).get();
+        Promise<Channel> promise = link.eventLoop().newPromise();
+        link.createStream(QuicStreamType.BIDIRECTIONAL, this.quicStreamInitializer).addListener((FutureListener<QuicStreamChannel>) f -> {
+            if (f.isSuccess()) {
+                QuicStreamChannel stream = f.getNow();
+                stream.writeAndFlush(identificationFrame(stream.alloc(), this.password, CHANNEL_DATA, controlId));
+                promise.setSuccess(stream);
             } else {
-                //the connection will time out on the server by itself
-                System.err.printf("unable to connect to %s!\n", dst);
+                promise.setFailure(f.cause());
             }
         });
+        return promise;
+    }
+
+    public synchronized Addr udpTarget(int srcPort) {
+        return this.udpTargetAddresses != null ? this.udpTargetAddresses.get(srcPort) : null;
+    }
+
+    /**
+     * Opens the UDP link, unless it's already open or there are no UDP forwards to use it.
+     * <p>
+     * All of the UDP forwards share a single link, which is re-opened if it goes away while the control channel is still up.
+     */
+    public synchronized void openUdpLink() {
+        Bootstrap udpLinkBootstrap = this.udpLinkBootstrap;
+        Channel controlChannel = this.controlChannel;
+        if (udpLinkBootstrap == null || this.udpTargetAddresses.isEmpty() || this.udpLink != null
+            || controlChannel == null || !controlChannel.hasAttr(ATTR_ID)) {
+            return;
+        }
+
+        Channel link = this.udpLink = udpLinkBootstrap.connect(this.serverAddress.host(), this.serverAddress.port()).channel();
+        link.closeFuture().addListener(f -> {
+            synchronized (this) {
+                if (this.udpLink == link) this.udpLink = null;
+            }
+            if (controlChannel == this.controlChannel && controlChannel.isActive()) {
+                controlChannel.eventLoop().schedule(this::openUdpLink, CLIENT_RECONNECT_DELAY, TimeUnit.SECONDS);
+            }
+        });
+    }
+
+    protected QuicChannel selectQuicLink() {
+        QuicChannel[] links = this.quicLinks.toArray(new QuicChannel[0]);
+        for (int i = 0; i < links.length; i++) {
+            QuicChannel link = links[Integer.remainderUnsigned(this.quicLinkIndex++, links.length)];
+            if (link.isActive()) return link;
+        }
+        return null;
+    }
+
+    protected ClientMuxLinkHandler selectMuxLink() {
+        ClientMuxLinkHandler best = null;
+        for (ClientMuxLinkHandler link : this.muxLinks) {
+            if (best == null || link.streamCount() < best.streamCount()) best = link;
+        }
+        return best;
     }
 }
@@ -15,8 +15,10 @@
 
 package net.daporkchop.loopback.client;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -29,12 +31,17 @@ import static net.daporkchop.loopback.util.Constants.*;
  */
 @RequiredArgsConstructor
 @Getter
-public abstract class ClientChannelInitializer extends ChannelInitializer<SocketChannel> {
+public abstract class ClientChannelInitializer<C extends Channel> extends ChannelInitializer<C> {
     @NonNull
     protected final Client client;
 
     @Override
-    protected void initChannel(SocketChannel channel) throws Exception {
+    protected void initChannel(C channel) throws Exception {
         this.client.channels.add(channel);
+
+        if (SPLICE && channel instanceof EpollSocketChannel) {
+            //splice() is only supported in level-triggered mode
+            ((EpollSocketChannel) channel).config().setEpollMode(EpollMode.LEVEL_TRIGGERED);
+        }
     }
 }
@@ -18,37 +18,25 @@ package net.daporkchop.loopback.client.backend;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import lombok.NonNull;
 import net.daporkchop.lib.unsafe.PUnsafe;
 import net.daporkchop.loopback.client.Client;
 import net.daporkchop.loopback.client.ClientChannelInitializer;
 import net.daporkchop.loopback.common.CommonHandler;
-
-import javax.net.ssl.SSLException;
+import net.daporkchop.loopback.common.PlaintextHandshakeHandler;
+import net.daporkchop.loopback.util.SslContexts;
+import net.daporkchop.loopback.util.Timeouts;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
 /**
  * @author DaPorkchop_
  */
-public final class BackendChannelInitializerClient extends ClientChannelInitializer {
+public final class BackendChannelInitializerClient extends ClientChannelInitializer<SocketChannel> {
     private static final long CLIENT_CONTROL_CHANNEL_OFFSET = PUnsafe.pork_getOffset(Client.class, "controlChannel");
 
-    private static final SslContext SSL_CONTEXT;
-
-    static {
-        SslContext context = null;
-        try {
-            context = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
-        } catch (SSLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            SSL_CONTEXT = context;
-        }
-    }
+    private static final SslContext SSL_CONTEXT = SslContexts.client();
 
     protected final ClientTransportHandler transport;
 
@@ -62,7 +50,15 @@ public final class BackendChannelInitializerClient extends ClientChannelInitiali
     protected synchronized void initChannel(SocketChannel channel) throws Exception {
         super.initChannel(channel);
 
-        channel.pipeline().addLast("ssl", new SslHandler(SSL_CONTEXT.newEngine(channel.alloc()), false));
+        if (PLAINTEXT) {
+            channel.pipeline().addLast("ssl", new PlaintextHandshakeHandler());
+        } else {
+            //the engine is created with the server's address so that previous sessions can be resumed
+            SslHandler ssl = new SslHandler(SSL_CONTEXT.newEngine(channel.alloc(), this.client.serverAddress().host(), this.client.serverAddress().port()), false);
+            ssl.setHandshakeTimeoutMillis(0L); //covered by the setup timeout
+            channel.pipeline().addLast("ssl", ssl);
+        }
+        Timeouts.closeIfNotHandshaked(channel);
 
         if (PUnsafe.compareAndSwapObject(this.client, CLIENT_CONTROL_CHANNEL_OFFSET, null, channel)) {
             //the new channel should be a control channel
@@ -73,7 +69,25 @@ public final class BackendChannelInitializerClient extends ClientChannelInitiali
                     .addListener(this.client.controlCloseHandler());
 
             channel.config().setAutoRead(true);
-            channel.pipeline().addLast("handle", new ClientControlHandler(this.client));
+            channel.pipeline()
+                    .addLast("frame", frameDecoder(CONTROL_MAX_FRAME))
+                    .addLast("handle", new ClientControlHandler(this.client));
+        } else if (channel.hasAttr(ATTR_LINK) && channel.attr(ATTR_LINK).get() == CHANNEL_UDP_LINK) {
+            //the new channel should be the link for datagrams
+            channel.attr(ATTR_LOG).get().debug("initChannel (udp link)");
+
+            channel.config().setAutoRead(true);
+            channel.pipeline()
+                    .addLast("frame", frameDecoder(UDP_MAX_FRAME))
+                    .addLast("handle", new ClientUdpLinkHandler(this.client));
+        } else if (channel.hasAttr(ATTR_LINK)) {
+            //the new channel should be a link for multiplexed streams
+            channel.attr(ATTR_LOG).get().debug("initChannel (link)");
+
+            channel.config().setAutoRead(true);
+            channel.pipeline()
+                    .addLast("frame", frameDecoder(MUX_MAX_FRAME))
+                    .addLast("handle", new ClientMuxLinkHandler(this.client));
         } else {
             //the new channel should be a normal data channel
             channel.attr(ATTR_LOG).get().debug("initChannel (data)");
@@ -16,16 +16,17 @@
 package net.daporkchop.loopback.client.backend;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.ssl.SslHandshakeCompletionEvent;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectMap;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import net.daporkchop.lib.common.util.PorkUtil;
 import net.daporkchop.lib.logging.Logging;
 import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
 import net.daporkchop.loopback.util.Addr;
 
 import java.net.InetSocketAddress;
@@ -45,11 +46,13 @@ public final class ClientControlHandler extends ChannelInboundHandlerAdapter {
         if (evt instanceof SslHandshakeCompletionEvent) {
             if (evt == SslHandshakeCompletionEvent.SUCCESS) {
                 ctx.channel().attr(ATTR_LOG).get().debug("ssl handshake success (control)");
-                ctx.channel().writeAndFlush(Unpooled.wrappedBuffer(this.client.password()));
+                ctx.channel().write(identificationFrame(ctx.alloc(), this.client.password(), CHANNEL_CONTROL, 0L));
 
-                this.client.targetAddresses().forEach((srcPort, addr) -> { //add any ports that are registered already
-                    ctx.channel().writeAndFlush(ctx.alloc().ioBuffer(3).writeByte(CONTROL_ADD).writeShort(srcPort));
-                });
+                //add any ports that are registered already, batching as many as possible into each frame
+                ByteBuf frame = this.addForwards(ctx, null, this.client.targetAddresses(), CONTROL_ADD);
+                frame = this.addForwards(ctx, frame, this.client.udpTargetAddresses(), CONTROL_ADD_UDP);
+                if (frame != null) ctx.channel().write(endFrame(frame));
+                ctx.channel().flush();
             } else {
                 ctx.channel().attr(ATTR_LOG).get().alert(((SslHandshakeCompletionEvent) evt).cause());
             }
@@ -64,52 +67,93 @@ public final class ClientControlHandler extends ChannelInboundHandlerAdapter {
             if (!(msg instanceof ByteBuf)) throw new IllegalArgumentException(PorkUtil.className(msg));
 
             ByteBuf buf = (ByteBuf) msg;
-            int command = buf.readUnsignedByte();
-
-            switch (command) {
-                case CONTROL_HANDSHAKE:
-                    if (ctx.channel().hasAttr(ATTR_ID)) throw new IllegalStateException("Handshake already received!");
-                    ctx.channel().attr(ATTR_ID).set(buf.readLong());
-                    ctx.channel().attr(ATTR_LOG).get().info("Control channel connected! ID: %d", ctx.channel().attr(ATTR_ID).get());
-                    break;
-                case CONTROL_RESULT: {
-                    int port = buf.readUnsignedShort();
-                    if (buf.readByte() != 0) { //remove
-                        if (buf.readByte() == 0) throw new IllegalStateException(String.format("Failed to remove forward for port %d!", port));
-                        Addr addr = this.client.targetAddresses().remove(port);
-                        if (addr != null) {
-                            Logging.logger.success("Removed forward from :%d to %s:%d!", port, addr.host(), addr.port());
-                        } else {
-                            throw new IllegalStateException(String.format("No forward for port %d found!", port));
+            while (buf.isReadable()) {
+                int command = buf.readUnsignedByte();
+                switch (command) {
+                    case CONTROL_HANDSHAKE:
+                        if (ctx.channel().hasAttr(ATTR_ID)) throw new IllegalStateException("Handshake already received!");
+                        int version = buf.readUnsignedByte();
+                        if (version != PROTOCOL_VERSION) {
+                            throw new IllegalStateException(String.format("Server uses protocol version %d (expected %d)!", version, PROTOCOL_VERSION));
                         }
-                    } else {
-                        if (buf.readByte() == 0) {
-                            this.client.targetAddresses().remove(port);
-                            throw new IllegalStateException(String.format("Failed to add forward for port %d!", port));
+                        ctx.channel().attr(ATTR_ID).set(buf.readLong());
+                        this.client.serverCompression(buf.readUnsignedByte());
+                        ctx.channel().attr(ATTR_LOG).get().info("Control channel connected! ID: %d", ctx.channel().attr(ATTR_ID).get());
+                        if (MUX_LINKS > 0) {
+                            for (int i = 0; i < MUX_LINKS; i++) this.client.openMuxLink();
+                        } else if (QUIC) {
+                            //new data channels are only opened over tcp if none of the links are up
+                            for (int i = 0; i < QUIC_LINKS; i++) this.client.openQuicLink();
                         } else {
-                            Addr addr = this.client.targetAddresses().get(port);
+                            this.client.readyChannels().start(ctx.channel().eventLoop());
+                        }
+                        this.client.openUdpLink();
+                        break;
+                    case CONTROL_RESULT: {
+                        int port = buf.readUnsignedShort();
+                        int flags = buf.readUnsignedByte();
+                        boolean udp = (flags & RESULT_UDP) != 0;
+                        String protocol = udp ? "/udp" : "";
+                        IntObjectMap<Addr> targetAddresses = udp ? this.client.udpTargetAddresses() : this.client.targetAddresses();
+                        if ((flags & RESULT_REMOVE) != 0) {
+                            if (buf.readByte() == 0) throw new IllegalStateException(String.format("Failed to remove forward for port %d%s!", port, protocol));
+                            Addr addr = targetAddresses.remove(port);
+                            this.removeStats(port, udp);
                             if (addr != null) {
-                                Logging.logger.success("Added forward from :%d to %s:%d!", port, addr.host(), addr.port());
+                                Logging.logger.success("Removed forward from :%d%s to %s:%d!", port, protocol, addr.host(), addr.port());
                             } else {
-                                throw new IllegalStateException(String.format("No forward for port %d found!", port));
+                                throw new IllegalStateException(String.format("No forward for port %d%s found!", port, protocol));
+                            }
+                        } else {
+                            if (buf.readByte() == 0) {
+                                targetAddresses.remove(port);
+                                this.removeStats(port, udp);
+                                throw new IllegalStateException(String.format("Failed to add forward for port %d%s!", port, protocol));
+                            } else {
+                                Addr addr = targetAddresses.get(port);
+                                if (addr != null) {
+                                    Logging.logger.success("Added forward from :%d%s to %s:%d!", port, protocol, addr.host(), addr.port());
+                                } else {
+                                    throw new IllegalStateException(String.format("No forward for port %d%s found!", port, protocol));
+                                }
                             }
                         }
                     }
+                    break;
+                    case CONTROL_INCOMING: {
+                        long id = buf.readLong();
+                        int port = buf.readUnsignedShort();
+                        InetSocketAddress addr = readAddress(buf);
+                        int earlyBytes = buf.readInt();
+                        ByteBuf earlyData = earlyBytes > 0 ? buf.readRetainedSlice(earlyBytes) : null;
+                        ctx.channel().attr(ATTR_LOG).get().debug("%s incoming on remote port %d, channel ID %d, %d bytes of early data", addr, port, id, earlyBytes);
+                        this.client.handleConnectionRequest(id, port, earlyData);
+                    }
+                    break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Invalid command ID: %d", command));
                 }
-                break;
-                case CONTROL_INCOMING: {
-                    long id = buf.readLong();
-                    int port = buf.readUnsignedShort();
-                    InetSocketAddress addr = readAddress(buf);
-                    ctx.channel().attr(ATTR_LOG).get().info("%s incoming on remote port %d, channel ID %d", addr, port, id);
-                    this.client.handleConnectionRequest(id, port);
-                }
-                break;
-                default:
-                    throw new IllegalArgumentException(String.format("Invalid command ID: %d", command));
             }
         } finally {
             ReferenceCountUtil.release(msg);
         }
     }
+
+    protected ByteBuf addForwards(ChannelHandlerContext ctx, ByteBuf frame, IntObjectMap<Addr> targetAddresses, int command) {
+        for (int srcPort : targetAddresses.keySet()) {
+            if (frame != null && frame.readableBytes() + 4 > CONTROL_MAX_FRAME) {
+                ctx.channel().write(endFrame(frame));
+                frame = null;
+            }
+            if (frame == null) frame = beginFrame(ctx.alloc(), Math.min(targetAddresses.size() * 4, CONTROL_MAX_FRAME - 4));
+            frame.writeByte(command).writeShort(srcPort);
+            if (command == CONTROL_ADD) frame.writeByte(BALANCE_WEIGHT);
+        }
+        return frame;
+    }
+
+    protected void removeStats(int port, boolean udp) {
+        ForwardStats stats = this.client.metrics().get(port, udp);
+        if (stats != null) this.client.metrics().remove(stats);
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.backend;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.common.mux.MuxLinkHandler;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Client end of a link, identifies itself to the server and makes itself available for new streams.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ClientMuxLinkHandler extends MuxLinkHandler {
+    @NonNull
+    protected final Client client;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+
+        handshakeFuture(ctx.channel()).addListener(f -> {
+            Channel channel = ctx.channel();
+            if (f.isSuccess()) {
+                channel.attr(ATTR_LOG).get().debug("ssl handshake success (link)");
+                channel.writeAndFlush(identificationFrame(ctx.alloc(), this.client.password(), CHANNEL_MUX_LINK, this.client.controlChannel().attr(ATTR_ID).get()));
+                this.client.muxLinks().add(this);
+            } else {
+                channel.attr(ATTR_LOG).get().alert(f.cause());
+                channel.close();
+            }
+        });
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.client.muxLinks().remove(this);
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void streamOpened(long id) {
+        throw new IllegalStateException("Server attempted to open a stream!");
+    }
+}
@@ -20,7 +20,6 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.ssl.SslHandshakeCompletionEvent;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -40,13 +39,11 @@ public final class ClientTransportHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
-        ctx.pipeline().get(SslHandler.class).handshakeFuture().addListener(f -> {
-            Channel channel = (Channel) f.getNow();
+        handshakeFuture(ctx.channel()).addListener(f -> {
+            Channel channel = ctx.channel();
             if (f.isSuccess()) {
                 channel.attr(ATTR_LOG).get().debug("ssl handshake success (data)");
-                channel.writeAndFlush(ctx.alloc().ioBuffer(PASSWORD_BYTES + 8)
-                        .writeBytes(this.client.password())
-                        .writeLong(this.client.controlChannel().attr(ATTR_ID).get()));
+                channel.writeAndFlush(identificationFrame(ctx.alloc(), this.client.password(), CHANNEL_DATA, this.client.controlChannel().attr(ATTR_ID).get()));
             } else {
                 channel.attr(ATTR_LOG).get().alert(f.cause());
                 channel.close();
@@ -55,11 +52,4 @@ public final class ClientTransportHandler extends ChannelInboundHandlerAdapter {
 
         super.handlerAdded(ctx);
     }
-
-    @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (!ctx.channel().hasAttr(ATTR_PAIR)) throw new IllegalStateException();
-
-        ctx.channel().attr(ATTR_PAIR).get().writeAndFlush(msg).addListener(DO_READ_HANDLER);
-    }
 }
@@ -0,0 +1,142 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.backend;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.client.target.UdpTargetHandler;
+import net.daporkchop.loopback.common.udp.UdpLinkHandler;
+import net.daporkchop.loopback.util.Addr;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Client end of a UDP link, identifies itself to the server and connects a datagram channel to the target of every flow that the server opens.
+ * <p>
+ * All flows are handled on the link's event loop.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ClientUdpLinkHandler extends UdpLinkHandler {
+    @NonNull
+    protected final Client client;
+
+    protected final LongObjectMap<UdpTargetHandler> flows = new LongObjectHashMap<>();
+    protected final List<UdpTargetHandler>          dirty = new ArrayList<>(); //flows which have had datagrams written to them since the last flush
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+
+        handshakeFuture(ctx.channel()).addListener(f -> {
+            Channel channel = ctx.channel();
+            if (f.isSuccess()) {
+                channel.attr(ATTR_LOG).get().debug("ssl handshake success (udp link)");
+                channel.writeAndFlush(identificationFrame(ctx.alloc(), this.client.password(), CHANNEL_UDP_LINK, this.client.controlChannel().attr(ATTR_ID).get()));
+            } else {
+                channel.attr(ATTR_LOG).get().alert(f.cause());
+                channel.close();
+            }
+        });
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        for (int i = 0, size = this.dirty.size(); i < size; i++) this.dirty.get(i).flush();
+        this.dirty.clear();
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        //the link is gone, so are all of the flows on it
+        List<UdpTargetHandler> flows = new ArrayList<>(this.flows.values());
+        this.flows.clear();
+        this.dirty.clear();
+        flows.forEach(UdpTargetHandler::remoteClosed);
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void flowOpened(long id, int port, InetSocketAddress sender) {
+        Addr dst = this.client.udpTarget(port);
+        Bootstrap udpBootstrap = this.client.udpBootstrap();
+        if (dst == null || udpBootstrap == null || this.flows.containsKey(id)) {
+            this.batch.close(this.channel.alloc(), id);
+            return;
+        }
+
+        this.channel.attr(ATTR_LOG).get().debug("%s opened udp flow %d on remote port %d", sender, id, port);
+        UdpTargetHandler flow = new UdpTargetHandler(this, id, this.client.metrics().get(port, true));
+        this.flows.put(id, flow);
+
+        //the target channel is connected on the link's event loop, so that datagrams never have to cross threads
+        udpBootstrap.clone(this.channel.eventLoop()).handler(flow).connect(dst.host(), dst.port()).addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                flow.connected(f.channel());
+            } else {
+                this.channel.attr(ATTR_LOG).get().error("Unable to connect to %s:%d!", dst.host(), dst.port());
+                flow.closed();
+            }
+        });
+    }
+
+    @Override
+    protected void flowData(long id, ByteBuf datagram) {
+        UdpTargetHandler flow = this.flows.get(id);
+        if (flow == null) { //the server doesn't know that the flow is gone yet
+            this.batch.close(this.channel.alloc(), id);
+            return;
+        }
+
+        flow.receive(datagram.retain());
+        if (flow.markDirty()) this.dirty.add(flow);
+    }
+
+    @Override
+    protected void flowClosed(long id) {
+        UdpTargetHandler flow = this.flows.remove(id);
+        if (flow != null) flow.remoteClosed();
+    }
+
+    /**
+     * Called once a flow's target channel has been closed.
+     */
+    public void targetClosed(@NonNull UdpTargetHandler flow) {
+        if (this.flows.get(flow.id()) == flow) {
+            this.flows.remove(flow.id());
+            this.batch.close(this.channel.alloc(), flow.id());
+            this.batch.flush(this.channel);
+        }
+    }
+}
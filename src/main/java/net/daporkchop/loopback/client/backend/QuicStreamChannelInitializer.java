@@ -0,0 +1,49 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.backend;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import lombok.NonNull;
+import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.client.ClientChannelInitializer;
+import net.daporkchop.loopback.common.CommonHandler;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Sets up streams opened on a QUIC link, which are used exactly like data channels once they have been identified.
+ *
+ * @author DaPorkchop_
+ */
+public final class QuicStreamChannelInitializer extends ClientChannelInitializer<QuicStreamChannel> {
+    public QuicStreamChannelInitializer(@NonNull Client client) {
+        super(client);
+    }
+
+    @Override
+    protected void initChannel(QuicStreamChannel channel) throws Exception {
+        super.initChannel(channel);
+
+        channel.attr(ATTR_LOG).set(DEFAULT_CHANNEL_LOGGER);
+        channel.attr(ATTR_LOG).get().debug("initChannel (quic stream)");
+
+        channel.config().setAutoRead(false);
+        channel.pipeline()
+                .addLast("handle", new ChannelInboundHandlerAdapter())
+                .addLast("common", CommonHandler.INSTANCE);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.backend;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.loopback.client.Client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Keeps a number of data channels connected to the server, handshaked and authenticated so that incoming connections don't have to wait for a
+ * full connect+handshake round trip before data can start flowing.
+ * <p>
+ * The number of channels kept ready is derived from the rate at which connection requests arrive and from the time it takes to set up a new
+ * channel, so that the pool can usually absorb a burst of requests until the background refill catches up.
+ * <p>
+ * Rate tracking is only done on the control channel's event loop, so it doesn't need to be synchronized.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public final class ReadyChannelPool {
+    @NonNull
+    protected final Client client;
+
+    private final Queue<Channel> ready        = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger  readyCount   = new AtomicInteger();
+    private final AtomicInteger  pendingCount = new AtomicInteger();
+
+    private final ChannelFutureListener removeHandler = f -> {
+        if (this.ready.remove(f.channel())) this.readyCount.decrementAndGet();
+    };
+
+    private ScheduledFuture<?> updateTask;
+
+    private volatile int    targetSize = CLIENT_READY_SOCKETS;
+    private volatile double setupTime  = 0.1d; //seconds, exponential moving average
+    private          double rate; //connection requests per second, exponentially decaying
+    private          long   lastUpdate;
+
+    /**
+     * Starts keeping channels ready.
+     * <p>
+     * Must be called from the control channel's event loop once the control channel has received its ID.
+     *
+     * @param loop the control channel's event loop
+     */
+    public void start(@NonNull EventLoop loop) {
+        if (this.updateTask != null) throw new IllegalStateException();
+
+        this.lastUpdate = System.nanoTime();
+        this.updateTask = loop.scheduleAtFixedRate(() -> {
+            this.updateRate(0);
+            this.trim();
+            this.fill();
+        }, CLIENT_READY_UPDATE_INTERVAL, CLIENT_READY_UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+        this.fill();
+    }
+
+    /**
+     * Stops keeping channels ready and closes all channels that are currently waiting in the pool.
+     */
+    public void clear() {
+        if (this.updateTask != null) {
+            this.updateTask.cancel(false);
+            this.updateTask = null;
+        }
+
+        for (Channel channel; (channel = this.ready.poll()) != null; ) {
+            this.readyCount.decrementAndGet();
+            channel.close();
+        }
+        this.targetSize = CLIENT_READY_SOCKETS;
+        this.rate = 0.0d;
+    }
+
+    /**
+     * Gets a data channel that is ready to be bound to a target channel.
+     * <p>
+     * Must be called from the control channel's event loop.
+     *
+     * @param loop the event loop to open a new channel on if none are ready. The returned future is completed on this event loop in that case
+     * @return a future that will be completed with the channel once it is ready
+     */
+    public Future<Channel> acquire(@NonNull EventLoop loop) {
+        this.updateRate(1);
+
+        for (Channel channel; (channel = this.ready.poll()) != null; ) {
+            this.readyCount.decrementAndGet();
+            channel.closeFuture().removeListener(this.removeHandler);
+            if (channel.isActive()) {
+                this.fill();
+                return channel.eventLoop().newSucceededFuture(channel);
+            }
+        }
+
+        //no channels are ready, open a new one just for this request
+        this.fill();
+        Promise<Channel> promise = loop.newPromise();
+        this.connect(loop, promise);
+        return promise;
+    }
+
+    /**
+     * Puts a data channel which was acquired but never used back into the pool, so that it can be handed out again.
+     * <p>
+     * May be called from any thread.
+     */
+    public void release(@NonNull Channel channel) {
+        if (this.updateTask == null || !channel.isActive()) {
+            channel.close();
+            return;
+        }
+
+        this.ready.add(channel);
+        this.readyCount.incrementAndGet();
+        channel.closeFuture().addListener(this.removeHandler);
+    }
+
+    protected void updateRate(int requests) {
+        long now = System.nanoTime();
+        double dt = (now - this.lastUpdate) / 1_000_000_000.0d;
+        this.lastUpdate = now;
+
+        //exponentially decaying request counter, which approximates the request rate per CLIENT_READY_RATE_WINDOW
+        this.rate = this.rate * Math.exp(-dt / CLIENT_READY_RATE_WINDOW) + requests / CLIENT_READY_RATE_WINDOW;
+
+        //keep enough channels to cover the requests that will arrive while new channels are being set up, with some headroom for bursts
+        int size = (int) Math.ceil(this.rate * this.setupTime * CLIENT_READY_HEADROOM);
+        this.targetSize = Math.max(CLIENT_READY_SOCKETS, Math.min(CLIENT_READY_SOCKETS_MAX, size));
+    }
+
+    protected void fill() {
+        if (this.updateTask == null) return;
+
+        while (this.readyCount.get() + this.pendingCount.get() < this.targetSize) {
+            this.pendingCount.incrementAndGet();
+            EventLoop loop = GROUP.next();
+            Promise<Channel> promise = loop.newPromise();
+            promise.addListener(f -> {
+                this.pendingCount.decrementAndGet();
+                if (f.isSuccess()) {
+                    Channel channel = (Channel) f.getNow();
+                    this.ready.add(channel);
+                    this.readyCount.incrementAndGet();
+                    channel.closeFuture().addListener(this.removeHandler);
+                }
+            });
+            this.connect(loop, promise);
+        }
+    }
+
+    protected void trim() {
+        for (Channel channel; this.readyCount.get() > this.targetSize && (channel = this.ready.poll()) != null; ) {
+            this.readyCount.decrementAndGet();
+            channel.close();
+        }
+    }
+
+    protected void connect(@NonNull EventLoop loop, @NonNull Promise<Channel> promise) {
+        long startTime = System.nanoTime();
+        this.client.bootstrap().clone(loop).connect(this.client.serverAddress().host(), this.client.serverAddress().port()).addListener((ChannelFutureListener) connectFuture -> {
+            if (!connectFuture.isSuccess()) {
+                promise.tryFailure(connectFuture.cause());
+                return;
+            }
+
+            //the transport handler sends the authentication message as soon as the handshake is complete, so the channel is usable after that
+            handshakeFuture(connectFuture.channel()).addListener(f -> {
+                if (f.isSuccess()) {
+                    this.setupTime += ((System.nanoTime() - startTime) / 1_000_000_000.0d - this.setupTime) * 0.125d;
+                    promise.trySuccess(connectFuture.channel());
+                } else {
+                    promise.tryFailure(f.cause());
+                }
+            });
+        });
+    }
+}
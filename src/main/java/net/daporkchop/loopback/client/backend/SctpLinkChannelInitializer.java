@@ -0,0 +1,57 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.backend;
+
+import io.netty.channel.sctp.SctpChannel;
+import io.netty.handler.codec.sctp.SctpMessageCompletionHandler;
+import lombok.NonNull;
+import net.daporkchop.loopback.client.Client;
+import net.daporkchop.loopback.client.ClientChannelInitializer;
+import net.daporkchop.loopback.common.CommonHandler;
+import net.daporkchop.loopback.common.PlaintextHandshakeHandler;
+import net.daporkchop.loopback.common.mux.SctpLinkCodec;
+import net.daporkchop.loopback.util.Timeouts;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Sets up links which are carried over SCTP associations rather than TCP connections.
+ *
+ * @author DaPorkchop_
+ */
+public final class SctpLinkChannelInitializer extends ClientChannelInitializer<SctpChannel> {
+    public SctpLinkChannelInitializer(@NonNull Client client) {
+        super(client);
+    }
+
+    @Override
+    protected void initChannel(SctpChannel channel) throws Exception {
+        super.initChannel(channel);
+
+        channel.attr(ATTR_LOG).get().debug("initChannel (sctp link)");
+
+        channel.pipeline().addLast("ssl", new PlaintextHandshakeHandler());
+        Timeouts.closeIfNotHandshaked(channel);
+
+        channel.config().setAutoRead(true);
+        channel.pipeline()
+                .addLast("sctp", new SctpMessageCompletionHandler())
+                .addLast("codec", new SctpLinkCodec(false))
+                .addLast("frame", frameDecoder(MUX_MAX_FRAME))
+                .addLast("handle", new ClientMuxLinkHandler(this.client))
+                .addLast("common", CommonHandler.INSTANCE);
+    }
+}
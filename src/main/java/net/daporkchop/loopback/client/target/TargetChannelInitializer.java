@@ -24,7 +24,7 @@ import net.daporkchop.loopback.common.CommonHandler;
 /**
  * @author DaPorkchop_
  */
-public final class TargetChannelInitializer extends ClientChannelInitializer {
+public final class TargetChannelInitializer extends ClientChannelInitializer<SocketChannel> {
     protected final TargetTransportHandler handler;
 
     public TargetChannelInitializer(@NonNull Client client) {
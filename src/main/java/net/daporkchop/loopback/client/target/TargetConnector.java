@@ -0,0 +1,154 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.target;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.NonNull;
+import net.daporkchop.loopback.util.Addr;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Connects to a target which may resolve to several addresses, racing connection attempts as described in RFC 8305 ("Happy Eyeballs").
+ * <p>
+ * The resolved addresses are tried alternating between address families, starting with whichever family won the last race for the same target.
+ * The next attempt is started as soon as the previous one fails, or after {@link net.daporkchop.loopback.util.Constants#CLIENT_CONNECT_ATTEMPT_DELAY}
+ * if it's still in progress. The first connection to succeed is used, and all other attempts are closed.
+ * <p>
+ * Everything is done on a single event loop, so none of the state needs to be synchronized.
+ *
+ * @author DaPorkchop_
+ */
+public final class TargetConnector {
+    /**
+     * Connects to a target.
+     *
+     * @param bootstrap the bootstrap to connect with, which must already use the given event loop
+     * @param dst       the target's address
+     * @param loop      the event loop that the target channel will be registered to
+     * @return a future which will be completed with the connected channel. Cancelling it closes all attempts that are still in progress
+     */
+    public static Future<Channel> connect(@NonNull Bootstrap bootstrap, @NonNull Addr dst, @NonNull EventLoop loop) {
+        TargetConnector connector = new TargetConnector(bootstrap, dst, loop);
+        loop.execute(() -> RESOLVER.getResolver(loop).resolveAll(InetSocketAddress.createUnresolved(dst.host(), dst.port()))
+                .addListener((FutureListener<List<InetSocketAddress>>) f -> {
+                    if (f.isSuccess()) {
+                        connector.start(f.getNow());
+                    } else {
+                        connector.promise.tryFailure(f.cause());
+                    }
+                }));
+        return connector.promise;
+    }
+
+    private final Bootstrap        bootstrap;
+    private final Addr             dst;
+    private final EventLoop        loop;
+    private final Promise<Channel> promise;
+
+    private final Queue<InetSocketAddress> addresses = new ArrayDeque<>();
+    private final List<Channel>            attempts  = new ArrayList<>();
+
+    private ScheduledFuture<?> delayTask;
+    private int                pending;
+    private Throwable          cause;
+
+    private TargetConnector(@NonNull Bootstrap bootstrap, @NonNull Addr dst, @NonNull EventLoop loop) {
+        this.bootstrap = bootstrap;
+        this.dst = dst;
+        this.loop = loop;
+        this.promise = loop.newPromise();
+
+        this.promise.addListener(f -> {
+            if (this.delayTask != null) this.delayTask.cancel(false);
+
+            //anything that didn't win the race is no longer needed
+            Channel winner = f.isSuccess() ? (Channel) f.getNow() : null;
+            for (Channel channel : this.attempts) {
+                if (channel != winner) channel.close();
+            }
+        });
+    }
+
+    private void start(@NonNull List<InetSocketAddress> resolved) {
+        //interleave both address families, starting with the preferred one
+        List<InetSocketAddress> preferred = new ArrayList<>();
+        List<InetSocketAddress> other = new ArrayList<>();
+        boolean preferIpv4 = this.dst.preferIpv4();
+        for (InetSocketAddress address : resolved) {
+            ((address.getAddress() instanceof Inet4Address) == preferIpv4 ? preferred : other).add(address);
+        }
+        for (int i = 0; i < preferred.size() || i < other.size(); i++) {
+            if (i < preferred.size()) this.addresses.add(preferred.get(i));
+            if (i < other.size()) this.addresses.add(other.get(i));
+        }
+
+        if (this.addresses.isEmpty()) {
+            this.promise.tryFailure(new UnknownHostException(this.dst.host()));
+        } else {
+            this.next();
+        }
+    }
+
+    private void next() {
+        this.delayTask = null;
+        if (this.promise.isDone()) return;
+
+        InetSocketAddress address = this.addresses.poll();
+        if (address == null) {
+            if (this.pending == 0) this.promise.tryFailure(this.cause);
+            return;
+        }
+
+        this.pending++;
+        ChannelFuture attempt = this.bootstrap.connect(address);
+        this.attempts.add(attempt.channel());
+        attempt.addListener(f -> {
+            this.pending--;
+            if (f.isSuccess()) {
+                if (this.promise.trySuccess(attempt.channel())) {
+                    this.dst.preferIpv4(address.getAddress() instanceof Inet4Address);
+                } else {
+                    attempt.channel().close();
+                }
+            } else {
+                //don't wait for the delay to expire when the attempt has already failed
+                this.attempts.remove(attempt.channel());
+                this.cause = f.cause();
+                if (this.delayTask != null) this.delayTask.cancel(false);
+                this.next();
+            }
+        });
+
+        if (!this.addresses.isEmpty()) this.delayTask = this.loop.schedule(this::next, CLIENT_CONNECT_ATTEMPT_DELAY, TimeUnit.MILLISECONDS);
+    }
+}
@@ -39,11 +39,4 @@ public final class TargetTransportHandler extends ChannelInboundHandlerAdapter {
 
         super.channelActive(ctx);
     }
-
-    @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (!ctx.channel().hasAttr(ATTR_PAIR)) throw new IllegalStateException();
-
-        ctx.channel().attr(ATTR_PAIR).get().writeAndFlush(msg).addListener(DO_READ_HANDLER);
-    }
 }
@@ -0,0 +1,170 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.client.target;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.loopback.client.backend.ClientUdpLinkHandler;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Handles a datagram channel connected to the target of a UDP forward, which carries a single flow.
+ * <p>
+ * Datagrams received over the link before the channel is connected are queued up, and dropped once too many of them are waiting.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class UdpTargetHandler extends ChannelInboundHandlerAdapter {
+    protected final ClientUdpLinkHandler link;
+    protected final long                 id;
+    protected final ForwardStats         stats;
+
+    protected Channel       channel;
+    protected List<ByteBuf> pending = new ArrayList<>(); //null once the channel is connected
+    protected boolean       dirty;
+    protected boolean       closed;
+
+    public UdpTargetHandler(@NonNull ClientUdpLinkHandler link, long id, ForwardStats stats) {
+        this.link = link;
+        this.id = id;
+        this.stats = stats;
+
+        if (stats != null) stats.connectionOpened();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (!(msg instanceof DatagramPacket)) throw new IllegalArgumentException(PorkUtil.className(msg));
+
+            ByteBuf content = ((DatagramPacket) msg).content();
+            if (this.link.channel().isWritable()) {
+                if (this.stats != null) this.stats.transferred(false, content.readableBytes());
+                this.link.batch().data(ctx.alloc(), this.id, content);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        this.link.batch().flush(this.link.channel());
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.closed();
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        //most likely an ICMP error, the server will open a new flow if the source keeps sending datagrams
+        ctx.channel().attr(ATTR_LOG).get().debug("%s", cause);
+        ctx.channel().close();
+    }
+
+    /**
+     * Called once the channel has been connected to the target.
+     */
+    public void connected(@NonNull Channel channel) {
+        this.channel = channel;
+        if (this.closed) {
+            channel.close();
+            return;
+        }
+
+        List<ByteBuf> pending = this.pending;
+        this.pending = null;
+        pending.forEach(this::receive);
+        channel.flush();
+    }
+
+    /**
+     * Writes a datagram received over the link to the target. The datagram isn't flushed.
+     */
+    public void receive(@NonNull ByteBuf datagram) {
+        if (this.pending != null) {
+            if (this.pending.size() < UDP_MAX_PENDING) {
+                this.pending.add(datagram);
+            } else {
+                datagram.release();
+            }
+        } else if (this.channel.isWritable()) {
+            if (this.stats != null) this.stats.transferred(true, datagram.readableBytes());
+            this.channel.write(datagram, this.channel.voidPromise());
+        } else { //the socket can't keep up, there's no point in buffering datagrams
+            datagram.release();
+        }
+    }
+
+    /**
+     * Marks this flow as having had datagrams written to it since the last flush.
+     *
+     * @return whether or not the flow wasn't marked already
+     */
+    public boolean markDirty() {
+        return !this.dirty && (this.dirty = true);
+    }
+
+    public void flush() {
+        this.dirty = false;
+        if (this.channel != null) this.channel.flush();
+    }
+
+    /**
+     * Closes this flow after the server has closed it.
+     */
+    public void remoteClosed() {
+        if (this.channel != null) {
+            this.channel.close();
+        } else {
+            this.closed();
+        }
+    }
+
+    /**
+     * Called once this flow is gone, either because the channel was closed or because it couldn't be connected.
+     */
+    public void closed() {
+        if (this.closed) return;
+        this.closed = true;
+
+        if (this.pending != null) {
+            this.pending.forEach(ByteBuf::release);
+            this.pending.clear();
+        }
+        if (this.stats != null) this.stats.connectionClosed();
+        this.link.targetClosed(this);
+    }
+}
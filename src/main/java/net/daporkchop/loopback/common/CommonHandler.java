@@ -15,6 +15,7 @@
 
 package net.daporkchop.loopback.common;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -51,6 +52,17 @@ public class CommonHandler extends ChannelDuplexHandler {
         super.channelUnregistered(ctx);
     }
 
+    //stop reading from the paired channel while this channel has too much data waiting to be written
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().hasAttr(ATTR_PAIR)) {
+            Channel pair = ctx.channel().attr(ATTR_PAIR).get();
+            if (pair != null) pair.config().setAutoRead(ctx.channel().isWritable());
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     //print exception to logger and close channel
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
@@ -0,0 +1,88 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.util.IdleTimeout;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Forwards everything read from one channel to another one.
+ * <p>
+ * A pair of these replaces the "handle" handler of two channels once they are bound together. The peer is held directly rather than being
+ * looked up from a channel attribute, and writes use the peer's void promise, so forwarding a buffer doesn't allocate anything on its own.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class RelayHandler extends ChannelInboundHandlerAdapter {
+    /**
+     * Replaces the "handle" handler of both channels with relay handlers pointing at each other.
+     * <p>
+     * Data read from {@code incoming} is counted as inbound traffic for the forward, data read from {@code backend} as outbound.
+     */
+    public static void relay(@NonNull Channel backend, @NonNull Channel incoming) {
+        //both directions count as activity for the same idle timeout, and towards the same forward's stats
+        IdleTimeout idle = backend.hasAttr(ATTR_IDLE) ? backend.attr(ATTR_IDLE).get() : incoming.attr(ATTR_IDLE).get();
+        ForwardStats stats = backend.hasAttr(ATTR_STATS) ? backend.attr(ATTR_STATS).get() : incoming.attr(ATTR_STATS).get();
+
+        backend.pipeline().replace("handle", "handle", new RelayHandler(incoming, idle, stats, false));
+        incoming.pipeline().replace("handle", "handle", new RelayHandler(backend, idle, stats, true));
+    }
+
+    protected final Channel        peerChannel;
+    protected final ChannelPromise peerVoidPromise;
+    protected final IdleTimeout    idle;
+    protected final ForwardStats   stats;
+    protected final boolean        inbound;
+
+    private long pendingBytes; //only flushed to the stats once per read loop
+
+    private RelayHandler(@NonNull Channel peerChannel, IdleTimeout idle, ForwardStats stats, boolean inbound) {
+        this.peerChannel = peerChannel;
+        this.peerVoidPromise = peerChannel.voidPromise();
+        this.idle = idle;
+        this.stats = stats;
+        this.inbound = inbound;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) this.pendingBytes += ((ByteBuf) msg).readableBytes();
+        this.peerChannel.write(msg, this.peerVoidPromise);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        //flush everything that was read in this read loop at once
+        this.peerChannel.flush();
+        if (this.idle != null) this.idle.touch();
+        if (this.stats != null && this.pendingBytes != 0L) {
+            this.stats.transferred(this.inbound, this.pendingBytes);
+            this.pendingBytes = 0L;
+        }
+
+        ctx.fireChannelReadComplete();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses and decompresses individual blocks for a single channel.
+ * <p>
+ * Only direct buffers may be passed to any of these methods. Neither of the buffers' positions are changed.
+ *
+ * @author DaPorkchop_
+ */
+abstract class BlockCodec {
+    /**
+     * Gets a buffer containing the given buffer's readable bytes which can be passed to a codec.
+     *
+     * @return either {@code buf} itself, or a copy of it which must be released by the caller
+     */
+    static ByteBuf direct(ByteBufAllocator alloc, ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) return buf;
+
+        int length = buf.readableBytes();
+        return alloc.directBuffer(length, length).writeBytes(buf, buf.readerIndex(), length);
+    }
+
+    public abstract int maxCompressedLength(int length);
+
+    /**
+     * @return the number of bytes written to {@code dst}
+     */
+    public abstract int compress(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * @return the number of bytes written to {@code dst}
+     */
+    public abstract int decompress(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * Releases any native resources held by this codec.
+     */
+    public void close() {
+    }
+}
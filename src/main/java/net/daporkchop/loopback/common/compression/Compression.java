@@ -0,0 +1,214 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import io.netty.channel.Channel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * The compression algorithms that can be used for data channels.
+ * <p>
+ * The server advertises the algorithms it supports in the handshake, and the client picks one for every data channel depending on the forward it
+ * belongs to. Once the channel is bound, everything sent on it is split into blocks of at most {@link #BLOCK_SIZE} bytes, each of which is either
+ * compressed on its own or sent as-is.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public enum Compression {
+    NONE(0) {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    },
+    /**
+     * Fast enough to keep up with a gigabit link on a single core, but doesn't compress as well.
+     */
+    LZ4(1) {
+        private final boolean available = check(() -> LZ4Factory.fastestInstance());
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+
+        @Override
+        protected BlockCodec newCodec() {
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            LZ4Compressor compressor = factory.fastCompressor();
+            LZ4SafeDecompressor decompressor = factory.safeDecompressor();
+
+            //both are stateless and thread-safe
+            return new BlockCodec() {
+                @Override
+                public int maxCompressedLength(int length) {
+                    return compressor.maxCompressedLength(length);
+                }
+
+                @Override
+                public int compress(@NonNull ByteBuffer src, @NonNull ByteBuffer dst) {
+                    return compressor.compress(src, src.position(), src.remaining(), dst, dst.position(), dst.remaining());
+                }
+
+                @Override
+                public int decompress(@NonNull ByteBuffer src, @NonNull ByteBuffer dst) {
+                    return decompressor.decompress(src, src.position(), src.remaining(), dst, dst.position(), dst.remaining());
+                }
+            };
+        }
+    },
+    /**
+     * Compresses text much better than {@link #LZ4}, at several times the cost. The level is set using {@code -Dloopback.compression.zstdLevel}.
+     */
+    ZSTD(2) {
+        private final boolean available = check(() -> Zstd.compressBound(0L));
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+
+        @Override
+        protected BlockCodec newCodec() {
+            //the contexts are comparatively expensive to set up, so one of each is kept for every channel and only created once it's needed
+            return new BlockCodec() {
+                private ZstdCompressCtx   compressCtx;
+                private ZstdDecompressCtx decompressCtx;
+
+                @Override
+                public int maxCompressedLength(int length) {
+                    return (int) Zstd.compressBound(length);
+                }
+
+                @Override
+                public int compress(@NonNull ByteBuffer src, @NonNull ByteBuffer dst) {
+                    if (this.compressCtx == null) this.compressCtx = new ZstdCompressCtx().setLevel(COMPRESSION_ZSTD_LEVEL);
+                    return this.compressCtx.compressDirectByteBuffer(dst, dst.position(), dst.remaining(), src, src.position(), src.remaining());
+                }
+
+                @Override
+                public int decompress(@NonNull ByteBuffer src, @NonNull ByteBuffer dst) {
+                    if (this.decompressCtx == null) this.decompressCtx = new ZstdDecompressCtx();
+                    return this.decompressCtx.decompressDirectByteBuffer(dst, dst.position(), dst.remaining(), src, src.position(), src.remaining());
+                }
+
+                @Override
+                public void close() {
+                    if (this.compressCtx != null) this.compressCtx.close();
+                    if (this.decompressCtx != null) this.decompressCtx.close();
+                }
+            };
+        }
+    };
+
+    /**
+     * The largest number of bytes compressed at once. Blocks are compressed independently of each other, so larger ones compress slightly better
+     * but take longer to arrive before they can be decompressed.
+     */
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    //every block starts with its type and length. compressed blocks are also followed by their decompressed length
+    static final int BLOCK_RAW               = 0;
+    static final int BLOCK_COMPRESSED        = 1;
+    static final int RAW_HEADER_BYTES        = 1 + 4;
+    static final int COMPRESSED_HEADER_BYTES = 1 + 4 + 4;
+
+    private static final Compression[] BY_ID = values();
+
+    /**
+     * Gets the algorithm with the given ID.
+     *
+     * @throws IllegalArgumentException if there is no such algorithm, or it isn't available on this system
+     */
+    public static Compression byId(int id) {
+        if (id < 0 || id >= BY_ID.length || !BY_ID[id].isAvailable()) throw new IllegalArgumentException(String.format("Unsupported compression: %d", id));
+        return BY_ID[id];
+    }
+
+    public static Compression parse(@NonNull String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * @return a bitmask of the IDs of all algorithms which are available on this system
+     */
+    public static int availableMask() {
+        int mask = 0;
+        for (Compression compression : BY_ID) {
+            if (compression.isAvailable()) mask |= 1 << compression.id;
+        }
+        return mask;
+    }
+
+    private static boolean check(@NonNull Runnable check) {
+        try {
+            check.run(); //loads the native library
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    protected final int id;
+
+    /**
+     * @return whether or not this algorithm can be used, as some of them depend on native libraries
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * Checks whether this algorithm is in the given bitmask of algorithm IDs, as returned by {@link #availableMask()}.
+     */
+    public boolean isIn(int mask) {
+        return (mask & (1 << this.id)) != 0;
+    }
+
+    /**
+     * Adds handlers which compress everything written to the channel and decompress everything read from it.
+     * <p>
+     * Must be called on the channel's event loop before it's bound, after anything that shouldn't be compressed has already been written. The
+     * handlers are added in front of the "handle" handler, so anything left over in the "frame" handler when it's removed is decompressed as well.
+     */
+    public void install(@NonNull Channel channel) {
+        BlockCodec decompressCodec = this.newCodec();
+        if (decompressCodec == null) return;
+
+        channel.pipeline()
+                .addBefore("handle", "decompress", new CompressionDecoder(decompressCodec))
+                .addBefore("handle", "compress", new CompressionEncoder(this.newCodec()));
+    }
+
+    /**
+     * @return a new codec for one direction of a single channel, or {@code null} if this algorithm leaves data as it is
+     */
+    protected BlockCodec newCodec() {
+        return null;
+    }
+}
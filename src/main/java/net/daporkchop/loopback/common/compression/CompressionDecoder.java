@@ -0,0 +1,106 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.NonNull;
+
+import java.util.List;
+
+import static net.daporkchop.loopback.common.compression.Compression.*;
+
+/**
+ * Decodes the blocks written by {@link CompressionEncoder}.
+ * <p>
+ * Blocks which weren't compressed are passed on as they arrive, so that they aren't delayed any more than they would be without compression.
+ *
+ * @author DaPorkchop_
+ */
+final class CompressionDecoder extends ByteToMessageDecoder {
+    private final BlockCodec codec;
+    private final int        maxCompressedLength;
+
+    private int rawRemaining; //number of bytes left in the raw block which is currently being read
+
+    CompressionDecoder(@NonNull BlockCodec codec) {
+        this.codec = codec;
+        this.maxCompressedLength = codec.maxCompressedLength(BLOCK_SIZE);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.isReadable()) {
+            if (this.rawRemaining > 0) {
+                int length = Math.min(in.readableBytes(), this.rawRemaining);
+                this.rawRemaining -= length;
+                out.add(in.readRetainedSlice(length));
+                continue;
+            } else if (in.readableBytes() < RAW_HEADER_BYTES) {
+                return;
+            }
+
+            int type = in.getUnsignedByte(in.readerIndex());
+            int length = in.getInt(in.readerIndex() + 1);
+            switch (type) {
+                case BLOCK_RAW:
+                    if (length <= 0 || length > BLOCK_SIZE) throw new CorruptedFrameException(String.format("Invalid block length: %d", length));
+                    in.skipBytes(RAW_HEADER_BYTES);
+                    this.rawRemaining = length;
+                    break;
+                case BLOCK_COMPRESSED: {
+                    if (length <= 0 || length > this.maxCompressedLength) throw new CorruptedFrameException(String.format("Invalid block length: %d", length));
+                    if (in.readableBytes() < COMPRESSED_HEADER_BYTES + length) return;
+
+                    int decompressedLength = in.getInt(in.readerIndex() + RAW_HEADER_BYTES);
+                    if (decompressedLength <= 0 || decompressedLength > BLOCK_SIZE) {
+                        throw new CorruptedFrameException(String.format("Invalid decompressed block length: %d", decompressedLength));
+                    }
+                    in.skipBytes(COMPRESSED_HEADER_BYTES);
+                    out.add(this.decompress(ctx, in.readSlice(length), decompressedLength));
+                    break;
+                }
+                default:
+                    throw new CorruptedFrameException(String.format("Invalid block type: %d", type));
+            }
+        }
+    }
+
+    private ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf block, int decompressedLength) {
+        ByteBuf src = BlockCodec.direct(ctx.alloc(), block);
+        ByteBuf dst = ctx.alloc().directBuffer(decompressedLength, decompressedLength);
+        try {
+            int length = this.codec.decompress(src.nioBuffer(src.readerIndex(), src.readableBytes()), dst.nioBuffer(0, decompressedLength));
+            if (length != decompressedLength) {
+                throw new CorruptedFrameException(String.format("Block decompressed to %d bytes (expected %d)", length, decompressedLength));
+            }
+
+            ByteBuf decompressed = dst.writerIndex(length);
+            dst = null;
+            return decompressed;
+        } finally {
+            if (src != block) src.release();
+            if (dst != null) dst.release();
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        this.codec.close();
+    }
+}
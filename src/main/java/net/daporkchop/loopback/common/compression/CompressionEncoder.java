@@ -0,0 +1,100 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import lombok.NonNull;
+
+import java.util.List;
+
+import static net.daporkchop.loopback.common.compression.Compression.*;
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Splits everything written to a channel into blocks, and compresses them if it's worth it.
+ * <p>
+ * Compressing data which doesn't get any smaller (because it's encrypted or already compressed) only wastes time, so once several blocks in a row
+ * didn't shrink by at least an eighth, the following blocks are sent as-is without even trying to compress them until a number of bytes have been
+ * written. That number doubles every time the next block still doesn't compress well, up to {@code -Dloopback.compression.skipMax}.
+ *
+ * @author DaPorkchop_
+ */
+final class CompressionEncoder extends MessageToMessageEncoder<ByteBuf> {
+    private static final int  MIN_BLOCK = 64; //shorter blocks are never compressed
+    private static final int  SAMPLES   = 4; //blocks in a row which have to be incompressible before compression is skipped
+    private static final long SKIP_MIN  = 256L << 10;
+
+    private final BlockCodec codec;
+
+    private int  incompressible; //number of blocks in a row which didn't compress well
+    private long skip = SKIP_MIN;
+    private long skipRemaining;
+
+    CompressionEncoder(@NonNull BlockCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        while (msg.isReadable()) {
+            ByteBuf block = msg.readSlice(Math.min(msg.readableBytes(), BLOCK_SIZE));
+            if (this.skipRemaining > 0L || block.readableBytes() < MIN_BLOCK || !this.compress(ctx, block, out)) {
+                this.skipRemaining -= block.readableBytes();
+                out.add(ctx.alloc().ioBuffer(RAW_HEADER_BYTES).writeByte(BLOCK_RAW).writeInt(block.readableBytes()));
+                out.add(block.retain());
+            }
+        }
+    }
+
+    /**
+     * Attempts to compress a single block.
+     *
+     * @return whether or not the block was compressed well enough to be sent compressed
+     */
+    private boolean compress(ChannelHandlerContext ctx, ByteBuf block, List<Object> out) {
+        int length = block.readableBytes();
+        int maxLength = this.codec.maxCompressedLength(length);
+        ByteBuf src = BlockCodec.direct(ctx.alloc(), block);
+        ByteBuf dst = ctx.alloc().directBuffer(COMPRESSED_HEADER_BYTES + maxLength);
+        try {
+            int compressedLength = this.codec.compress(src.nioBuffer(src.readerIndex(), length), dst.nioBuffer(COMPRESSED_HEADER_BYTES, maxLength));
+            if (compressedLength > length - (length >>> 3)) {
+                if (++this.incompressible >= SAMPLES) {
+                    this.skipRemaining = this.skip;
+                    this.skip = Math.min(this.skip << 1L, COMPRESSION_SKIP_MAX);
+                }
+                return false;
+            }
+
+            this.incompressible = 0;
+            this.skip = SKIP_MIN;
+            out.add(dst.writeByte(BLOCK_COMPRESSED).writeInt(compressedLength).writeInt(length).writerIndex(COMPRESSED_HEADER_BYTES + compressedLength));
+            dst = null;
+            return true;
+        } finally {
+            if (src != block) src.release();
+            if (dst != null) dst.release();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        this.codec.close();
+        super.handlerRemoved(ctx);
+    }
+}
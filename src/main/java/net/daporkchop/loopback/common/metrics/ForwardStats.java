@@ -0,0 +1,74 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.metrics;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters for a single forward.
+ * <p>
+ * "In" is data sent by whoever connected to the forwarded port, "out" is data sent back to them. For UDP forwards, every source address is
+ * counted as a connection for as long as its flow exists. All counters are striped, so event loops updating the same forward at the same time
+ * don't contend with each other.
+ * <p>
+ * Connections which are spliced (plaintext on epoll) are never seen by the relay handlers, so their data isn't counted in the byte counters.
+ * They're counted separately instead, so that a forward whose traffic is all spliced doesn't look idle.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ForwardStats {
+    protected final int     port;
+    protected final boolean udp;
+    protected final String  target; //only known by the client
+
+    protected final LongAdder        bytesIn            = new LongAdder();
+    protected final LongAdder        bytesOut           = new LongAdder();
+    protected final LongAdder        activeConnections  = new LongAdder();
+    protected final LongAdder        totalConnections   = new LongAdder();
+    protected final LongAdder        setupFailures      = new LongAdder();
+    protected final LongAdder        splicedConnections = new LongAdder();
+    protected final LatencyHistogram setupLatency       = new LatencyHistogram();
+
+    public void connectionOpened() {
+        this.totalConnections.increment();
+        this.activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        this.activeConnections.decrement();
+    }
+
+    public void setupComplete(long startNanos) {
+        this.setupLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void setupFailed() {
+        this.setupFailures.increment();
+    }
+
+    public void connectionSpliced() {
+        this.splicedConnections.increment();
+    }
+
+    public void transferred(boolean in, long bytes) {
+        (in ? this.bytesIn : this.bytesOut).add(bytes);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed, exponentially growing buckets.
+ * <p>
+ * The first bucket holds everything up to 100µs, and every following bucket doubles the upper bound, up to roughly 52 seconds. Anything
+ * longer than that ends up in an overflow bucket.
+ *
+ * @author DaPorkchop_
+ */
+public final class LatencyHistogram {
+    public static final int  BUCKETS           = 20;
+    public static final long FIRST_BOUND_NANOS = 100_000L;
+
+    /**
+     * @return the upper bound of the given bucket, in nanoseconds
+     */
+    public static long bound(int bucket) {
+        return FIRST_BOUND_NANOS << bucket;
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+    private final LongAdder   sum     = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i <= BUCKETS; i++) this.buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        long q = Math.max(nanos, 0L) / FIRST_BOUND_NANOS;
+        int bucket = q == 0L ? 0 : 64 - Long.numberOfLeadingZeros(q);
+        this.buckets[Math.min(bucket, BUCKETS)].increment();
+        this.sum.add(nanos);
+    }
+
+    /**
+     * @return the number of values in each bucket, with the overflow bucket last
+     */
+    public long[] snapshot() {
+        long[] counts = new long[BUCKETS + 1];
+        for (int i = 0; i <= BUCKETS; i++) counts[i] = this.buckets[i].sum();
+        return counts;
+    }
+
+    public long sumNanos() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Estimates a quantile from a snapshot.
+     *
+     * @return the upper bound of the bucket containing the quantile in nanoseconds, {@link Long#MAX_VALUE} if it's in the overflow bucket or
+     * {@code -1L} if the snapshot is empty
+     */
+    public static long quantile(long[] snapshot, double quantile) {
+        long total = 0L;
+        for (long count : snapshot) total += count;
+        if (total == 0L) return -1L;
+
+        long target = (long) Math.ceil(total * quantile);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            if ((seen += snapshot[i]) >= target) return bound(i);
+        }
+        return Long.MAX_VALUE;
+    }
+}
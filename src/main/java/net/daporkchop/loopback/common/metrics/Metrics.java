@@ -0,0 +1,126 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.metrics;
+
+import lombok.NonNull;
+import net.daporkchop.lib.logging.Logger;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the {@link ForwardStats} for every forward of an endpoint, and formats them for humans and for Prometheus.
+ *
+ * @author DaPorkchop_
+ */
+public final class Metrics {
+    private final ConcurrentMap<Integer, ForwardStats> forwards = new ConcurrentSkipListMap<>();
+
+    //TCP and UDP forwards may share a port number, UDP forwards are listed after all TCP ones
+    private static int key(int port, boolean udp) {
+        return udp ? port | 0x10000 : port;
+    }
+
+    /**
+     * Gets the stats for the forward on the given port, creating them if they don't exist yet.
+     */
+    public ForwardStats forward(int port, boolean udp, String target) {
+        return this.forwards.computeIfAbsent(key(port, udp), k -> new ForwardStats(port, udp, target));
+    }
+
+    public ForwardStats get(int port, boolean udp) {
+        return this.forwards.get(key(port, udp));
+    }
+
+    public void remove(@NonNull ForwardStats stats) {
+        this.forwards.remove(key(stats.port(), stats.udp()), stats);
+    }
+
+    public void print(@NonNull Logger logger) {
+        logger.info("%d forwards:", this.forwards.size());
+        for (ForwardStats stats : this.forwards.values()) {
+            long[] latency = stats.setupLatency().snapshot();
+            long spliced = stats.splicedConnections().sum();
+            logger.info("  :%d%s%s active=%d total=%d failed=%d in=%s out=%s%s setup(p50=%s p99=%s)",
+                    stats.port(), stats.udp() ? "/udp" : "", stats.target() != null ? " -> " + stats.target() : "",
+                    stats.activeConnections().sum(), stats.totalConnections().sum(), stats.setupFailures().sum(),
+                    formatBytes(stats.bytesIn().sum()), formatBytes(stats.bytesOut().sum()),
+                    spliced != 0L ? " (excluding " + spliced + " spliced)" : "",
+                    formatNanos(LatencyHistogram.quantile(latency, 0.5d)), formatNanos(LatencyHistogram.quantile(latency, 0.99d)));
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(@NonNull StringBuilder builder) {
+        this.writeCounter(builder, "loopback_forward_bytes_in_total", "Bytes received from connections to the forwarded port.", "counter", ForwardStats::bytesIn);
+        this.writeCounter(builder, "loopback_forward_bytes_out_total", "Bytes sent to connections to the forwarded port.", "counter", ForwardStats::bytesOut);
+        this.writeCounter(builder, "loopback_forward_connections_active", "Currently open connections.", "gauge", ForwardStats::activeConnections);
+        this.writeCounter(builder, "loopback_forward_connections_total", "Connections accepted since the forward was added.", "counter", ForwardStats::totalConnections);
+        this.writeCounter(builder, "loopback_forward_connections_spliced_total", "Connections relayed with splice(), which aren't counted in the byte totals.", "counter", ForwardStats::splicedConnections);
+        this.writeCounter(builder, "loopback_forward_setup_failures_total", "Connections which were closed before they could be set up.", "counter", ForwardStats::setupFailures);
+
+        builder.append("# HELP loopback_forward_setup_seconds Time taken to set up a connection through the tunnel.\n")
+                .append("# TYPE loopback_forward_setup_seconds histogram\n");
+        for (ForwardStats stats : this.forwards.values()) {
+            long[] snapshot = stats.setupLatency().snapshot();
+            long count = 0L;
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                count += snapshot[i];
+                this.writeName(builder, "loopback_forward_setup_seconds_bucket", stats, String.valueOf(LatencyHistogram.bound(i) / 1_000_000_000.0d))
+                        .append(count).append('\n');
+            }
+            count += snapshot[LatencyHistogram.BUCKETS];
+            this.writeName(builder, "loopback_forward_setup_seconds_bucket", stats, "+Inf").append(count).append('\n');
+            this.writeName(builder, "loopback_forward_setup_seconds_sum", stats, null).append(stats.setupLatency().sumNanos() / 1_000_000_000.0d).append('\n');
+            this.writeName(builder, "loopback_forward_setup_seconds_count", stats, null).append(count).append('\n');
+        }
+    }
+
+    private void writeCounter(@NonNull StringBuilder builder, @NonNull String name, @NonNull String help, @NonNull String type, @NonNull CounterGetter getter) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (ForwardStats stats : this.forwards.values()) {
+            this.writeName(builder, name, stats, null).append(getter.get(stats).sum()).append('\n');
+        }
+    }
+
+    private StringBuilder writeName(@NonNull StringBuilder builder, @NonNull String name, @NonNull ForwardStats stats, String le) {
+        builder.append(name).append("{port=\"").append(stats.port()).append("\",protocol=\"").append(stats.udp() ? "udp" : "tcp").append('"');
+        if (stats.target() != null) builder.append(",target=\"").append(stats.target().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        if (le != null) builder.append(",le=\"").append(le).append('"');
+        return builder.append("} ");
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024L) return bytes + "B";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f%ciB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 0L) return "-";
+        if (nanos == Long.MAX_VALUE) return ">" + LatencyHistogram.bound(LatencyHistogram.BUCKETS - 1) / 1_000_000L + "ms";
+        return nanos < 1_000_000L ? "<=" + nanos / 1000L + "µs" : "<=" + nanos / 1_000_000L + "ms";
+    }
+
+    @FunctionalInterface
+    private interface CounterGetter {
+        LongAdder get(@NonNull ForwardStats stats);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.mux;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.lib.common.util.PorkUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Handles a link channel, which carries any number of multiplexed streams between the client and the server.
+ * <p>
+ * Every frame is prefixed with its length (which is stripped by the "frame" decoder), followed by a one-byte frame type, the 8-byte stream ID
+ * and the frame's payload.
+ * <p>
+ * All stream bookkeeping is done on the link's event loop, and the local end of every stream is moved onto it as well.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public abstract class MuxLinkHandler extends ChannelInboundHandlerAdapter {
+    protected final LongObjectMap<MuxStreamHandler> streams = new LongObjectHashMap<>();
+    protected final List<MuxStreamHandler>          dirty   = new ArrayList<>(); //streams which have had data written to them since the last flush
+
+    protected          Channel channel;
+    protected volatile int     streamCount;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.channel = ctx.channel();
+
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (!(msg instanceof ByteBuf)) throw new IllegalArgumentException(PorkUtil.className(msg));
+
+            ByteBuf buf = (ByteBuf) msg;
+            int type = buf.readUnsignedByte();
+            long id = buf.readLong();
+            switch (type) {
+                case MUX_FRAME_OPEN:
+                    this.streamOpened(id);
+                    break;
+                case MUX_FRAME_DATA: {
+                    MuxStreamHandler stream = this.streams.get(id);
+                    if (stream != null) {
+                        stream.receive(buf.retain());
+                        if (stream.pending == null && !stream.dirty) {
+                            stream.dirty = true;
+                            this.dirty.add(stream);
+                        }
+                    }
+                }
+                break;
+                case MUX_FRAME_CLOSE: {
+                    MuxStreamHandler stream = this.streams.remove(id);
+                    if (stream != null) {
+                        this.streamCount--;
+                        stream.remoteClosed();
+                    }
+                }
+                break;
+                case MUX_FRAME_WINDOW: {
+                    MuxStreamHandler stream = this.streams.get(id);
+                    if (stream != null) stream.windowUpdate(buf.readInt());
+                }
+                break;
+                default:
+                    throw new IllegalArgumentException(String.format("Invalid frame type: %d", type));
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        //flush every stream that received data in this read loop
+        for (int i = 0, size = this.dirty.size(); i < size; i++) {
+            MuxStreamHandler stream = this.dirty.get(i);
+            stream.dirty = false;
+            stream.channel().flush();
+        }
+        this.dirty.clear();
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        this.streams.values().forEach(MuxStreamHandler::updateAutoRead);
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        //the link is gone, so are all of the streams on it
+        this.streams.values().forEach(stream -> {
+            stream.releasePending();
+            stream.channel().close();
+        });
+        this.streams.clear();
+        this.dirty.clear();
+        this.streamCount = 0;
+
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Called when the remote end opens a new stream.
+     *
+     * @param id the ID of the new stream
+     */
+    protected abstract void streamOpened(long id);
+
+    /**
+     * Attaches a channel to this link as the local end of a stream.
+     *
+     * @param id    the ID of the stream
+     * @param local the channel
+     * @param open  whether or not the remote end should be notified that the stream has been opened
+     */
+    public void attach(long id, @NonNull Channel local, boolean open) {
+        if (!this.channel.eventLoop().inEventLoop()) {
+            this.channel.eventLoop().execute(() -> this.attach(id, local, open));
+            return;
+        }
+
+        if (!this.channel.isActive() || this.streams.containsKey(id)) {
+            local.close();
+            if (!open) this.writeFrame(MUX_FRAME_CLOSE, id);
+            return;
+        }
+
+        //streams are always opened by the client, so the local channel is the frontend on the end that didn't open it
+        MuxStreamHandler stream = new MuxStreamHandler(this, id, local, local.attr(ATTR_IDLE).get(), local.attr(ATTR_STATS).get(), !open);
+        this.streams.put(id, stream);
+        this.streamCount++;
+        if (open) this.writeFrame(MUX_FRAME_OPEN, id);
+
+        if (local.eventLoop() == this.channel.eventLoop()) {
+            this.start(stream);
+        } else {
+            //move the local channel onto the link's event loop first so that data never has to cross threads, anything received for the stream
+            // in the meantime is queued up
+            stream.pending = new ArrayList<>();
+            moveToEventLoop(local, this.channel.eventLoop()).addListener((ChannelFutureListener) f -> this.channel.eventLoop().execute(() -> {
+                if (f.isSuccess()) {
+                    this.start(stream);
+                } else {
+                    local.close();
+                    stream.releasePending();
+                    this.detach(stream);
+                }
+            }));
+        }
+    }
+
+    protected void start(@NonNull MuxStreamHandler stream) {
+        Channel local = stream.channel();
+        if (!local.isOpen()) { //the stream handler was never added, so it won't be notified when the channel is closed
+            stream.releasePending();
+            this.detach(stream);
+            return;
+        }
+
+        local.attr(ATTR_BOUND).set(Boolean.TRUE);
+        local.pipeline().replace("handle", "handle", stream);
+        setupComplete(local);
+        stream.writePending();
+        local.config().setAutoRead(true);
+    }
+
+    protected void detach(@NonNull MuxStreamHandler stream) {
+        if (!this.channel.eventLoop().inEventLoop()) {
+            this.channel.eventLoop().execute(() -> this.detach(stream));
+            return;
+        }
+
+        if (this.streams.get(stream.id()) == stream) {
+            this.streams.remove(stream.id());
+            this.streamCount--;
+            this.writeFrame(MUX_FRAME_CLOSE, stream.id());
+        }
+    }
+
+    protected void writeFrame(int type, long id) {
+        this.channel.writeAndFlush(this.channel.alloc().ioBuffer(MUX_HEADER_BYTES)
+                .writeInt(MUX_HEADER_BYTES - 4).writeByte(type).writeLong(id), this.channel.voidPromise());
+    }
+
+    protected void writeWindow(long id, int credits) {
+        this.channel.writeAndFlush(this.channel.alloc().ioBuffer(MUX_HEADER_BYTES + 4)
+                .writeInt(MUX_HEADER_BYTES).writeByte(MUX_FRAME_WINDOW).writeLong(id).writeInt(credits), this.channel.voidPromise());
+    }
+
+    protected void writeData(long id, @NonNull ByteBuf data) {
+        ByteBuf header = this.channel.alloc().ioBuffer(MUX_HEADER_BYTES)
+                .writeInt(MUX_HEADER_BYTES - 4 + data.readableBytes()).writeByte(MUX_FRAME_DATA).writeLong(id);
+        this.channel.write(this.channel.alloc().compositeDirectBuffer(2).addComponents(true, header, data), this.channel.voidPromise());
+    }
+}
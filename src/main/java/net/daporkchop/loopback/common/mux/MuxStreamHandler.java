@@ -0,0 +1,174 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.mux;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.util.IdleTimeout;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Forwards data between a local channel and a single stream on a link.
+ * <p>
+ * Each direction of a stream has a window of {@link net.daporkchop.loopback.util.Constants#MUX_WINDOW} bytes. The sender stops reading from its
+ * local channel once the window is used up (or while the link itself is above its high water mark), and the receiver grants more credits once
+ * the data has been handed to its local channel and that channel is writable again.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class MuxStreamHandler extends ChannelInboundHandlerAdapter {
+    @NonNull
+    protected final MuxLinkHandler link;
+    protected final long           id;
+    @NonNull
+    protected final Channel        channel;
+    protected final IdleTimeout    idle;
+    protected final ForwardStats   stats;
+    protected final boolean        localInbound; //whether data read from the local channel counts as inbound traffic
+
+    protected final AtomicInteger window = new AtomicInteger(MUX_WINDOW);
+    protected       int           unacknowledged; //only accessed from the link's event loop
+    protected       boolean       dirty; //only accessed from the link's event loop
+    protected       long          pendingBytes; //only accessed from the local channel's event loop
+
+    protected List<ByteBuf> pending; //data received before the local channel was moved onto the link's event loop
+    protected boolean       closePending;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ReferenceCountUtil.release(msg);
+            throw new IllegalArgumentException(PorkUtil.className(msg));
+        }
+
+        int size = ((ByteBuf) msg).readableBytes();
+        this.pendingBytes += size;
+        this.link.writeData(this.id, (ByteBuf) msg);
+
+        if (this.window.addAndGet(-size) <= 0 || !this.link.channel().isWritable()) this.updateAutoRead();
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        //flush everything that was read in this read loop at once
+        this.link.channel().flush();
+        if (this.idle != null) this.idle.touch();
+        if (this.stats != null && this.pendingBytes != 0L) {
+            this.stats.transferred(this.localInbound, this.pendingBytes);
+            this.pendingBytes = 0L;
+        }
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.link.detach(this);
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) this.link.channel().eventLoop().execute(this::acknowledge);
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    protected void receive(@NonNull ByteBuf data) {
+        if (this.stats != null) this.stats.transferred(!this.localInbound, data.readableBytes());
+        this.unacknowledged += data.readableBytes();
+        if (this.pending != null) {
+            this.pending.add(data);
+            return;
+        }
+
+        this.channel.write(data, this.channel.voidPromise());
+        this.acknowledge();
+        if (this.idle != null) this.idle.touch();
+    }
+
+    protected void acknowledge() {
+        if (this.unacknowledged >= MUX_WINDOW >>> 1 && this.channel.isWritable()) {
+            this.link.writeWindow(this.id, this.unacknowledged);
+            this.unacknowledged = 0;
+        }
+    }
+
+    protected void windowUpdate(int credits) {
+        this.window.addAndGet(credits);
+        this.updateAutoRead();
+    }
+
+    /**
+     * Only keeps reading from the local channel while there is space left in the window and the link is writable.
+     * <p>
+     * This may be called from both the local channel's and the link's event loop, so the state is checked again after disabling reading in
+     * case it was changed concurrently.
+     */
+    protected void updateAutoRead() {
+        boolean read = this.window.get() > 0 && this.link.channel().isWritable();
+        this.channel.config().setAutoRead(read);
+        if (!read && this.window.get() > 0 && this.link.channel().isWritable()) this.channel.config().setAutoRead(true);
+    }
+
+    protected void writePending() {
+        List<ByteBuf> pending = this.pending;
+        if (pending == null) return;
+        this.pending = null;
+
+        for (int i = 0, size = pending.size(); i < size; i++) this.channel.write(pending.get(i), this.channel.voidPromise());
+        if (this.closePending) {
+            this.remoteClosed();
+        } else {
+            this.channel.flush();
+            this.acknowledge();
+        }
+    }
+
+    protected void releasePending() {
+        List<ByteBuf> pending = this.pending;
+        if (pending == null) return;
+        this.pending = null;
+
+        pending.forEach(ReferenceCountUtil::release);
+    }
+
+    protected void remoteClosed() {
+        if (this.pending != null) {
+            this.closePending = true;
+            return;
+        }
+
+        this.channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+}
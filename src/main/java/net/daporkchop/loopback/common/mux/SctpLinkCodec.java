@@ -0,0 +1,96 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.mux;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.sctp.SctpChannel;
+import io.netty.channel.sctp.SctpMessage;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.ReferenceCountUtil;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Carries the frames of a link over an SCTP association.
+ * <p>
+ * Every frame is sent as a single message, still prefixed with its length so that the rest of the pipeline is exactly the same as on a TCP link.
+ * The identification message is always sent on stream 0, and every other frame on a stream derived from its stream ID, so that all frames
+ * belonging to the same stream are delivered in order but the other streams don't have to wait for them. Messages are expected to have been
+ * reassembled by a {@link io.netty.handler.codec.sctp.SctpMessageCompletionHandler}.
+ * <p>
+ * Messages on other streams may overtake the identification message, so the server holds them back until it has been received. Nothing has
+ * been authenticated at that point, so only up to {@code MUX_SCTP_HELD} bytes are held and the association is closed if the peer sends more.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public final class SctpLinkCodec extends MessageToMessageCodec<SctpMessage, ByteBuf> {
+    protected final boolean server; //whether this is the server's end of the link, which receives the identification message instead of sending it
+
+    protected boolean       identified; //whether the identification message has been sent (client) or received (server)
+    protected int           streams; //the number of outbound streams, 0 until the first frame for a stream is sent
+    protected List<ByteBuf> held; //messages received before the identification message
+    protected int           heldBytes;
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int stream = 0;
+        if (this.server || this.identified) {
+            if (this.streams == 0) this.streams = Math.max(((SctpChannel) ctx.channel()).association().maxOutboundStreams(), 1);
+            stream = (int) Long.remainderUnsigned(msg.getLong(msg.readerIndex() + 4 + 1), this.streams); //the stream ID follows the length and type
+        } else {
+            this.identified = true;
+        }
+        out.add(new SctpMessage(0, stream, msg.retain()));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, SctpMessage msg, List<Object> out) throws Exception {
+        if (!this.server || this.identified) {
+            out.add(msg.content().retain());
+        } else if (msg.streamIdentifier() != 0) {
+            if ((this.heldBytes += msg.content().readableBytes()) > MUX_SCTP_HELD) {
+                if (ctx.channel().isOpen()) ctx.channel().attr(ATTR_LOG).get().error("Received too much data before identification!");
+                ctx.close();
+                return;
+            }
+            if (this.held == null) this.held = new ArrayList<>();
+            this.held.add(msg.content().retain());
+        } else {
+            this.identified = true;
+            out.add(msg.content().retain());
+            if (this.held != null) {
+                out.addAll(this.held);
+                this.held = null;
+            }
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (this.held != null) {
+            this.held.forEach(ReferenceCountUtil::release);
+            this.held = null;
+        }
+
+        super.handlerRemoved(ctx);
+    }
+}
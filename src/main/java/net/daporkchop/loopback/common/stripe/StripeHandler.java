@@ -0,0 +1,98 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.stripe;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.lib.common.util.PorkUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands everything read from a stripe over to its {@link StripedRelay}.
+ * <p>
+ * Chunks read on another event loop than the relay's are collected and handed over once per read loop, so that crossing threads only costs a
+ * single task no matter how many chunks were read.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+final class StripeHandler extends ChannelInboundHandlerAdapter {
+    @NonNull
+    protected final StripedRelay relay;
+    protected final int          index;
+
+    private List<ByteBuf> batch;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ReferenceCountUtil.release(msg);
+            throw new IllegalArgumentException(PorkUtil.className(msg));
+        }
+
+        if (this.relay.loop.inEventLoop()) {
+            this.relay.received(this.index, (ByteBuf) msg);
+        } else {
+            if (this.batch == null) this.batch = new ArrayList<>();
+            this.batch.add((ByteBuf) msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        List<ByteBuf> batch = this.takeBatch();
+        this.relay.execute(() -> {
+            this.handOver(batch);
+            this.relay.stripeReadComplete();
+        });
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        this.relay.execute(this.relay::stripeWritabilityChanged);
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        List<ByteBuf> batch = this.takeBatch();
+        this.relay.execute(() -> {
+            this.handOver(batch);
+            this.relay.stripeClosed(this.index);
+        });
+
+        super.channelInactive(ctx);
+    }
+
+    protected List<ByteBuf> takeBatch() {
+        List<ByteBuf> batch = this.batch;
+        this.batch = null;
+        return batch;
+    }
+
+    protected void handOver(List<ByteBuf> batch) {
+        if (batch != null) batch.forEach(chunk -> this.relay.received(this.index, chunk));
+    }
+}
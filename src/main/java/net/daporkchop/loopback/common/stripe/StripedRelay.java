@@ -0,0 +1,326 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.stripe;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import lombok.NonNull;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.util.IdleTimeout;
+
+import java.util.Arrays;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Relays a single connection over several data channels ("stripes") at once, so that its throughput isn't limited to what one tcp connection
+ * can achieve on a path with a high bandwidth-delay product.
+ * <p>
+ * Everything read from the local channel is cut into chunks of at most {@link net.daporkchop.loopback.util.Constants#STRIPE_CHUNK} bytes, each
+ * of which is prefixed with a sequence number and sent on the stripe with the most room left in its outbound buffer, so stripes that drain
+ * faster end up carrying more of the data. The other end writes the chunks to its own local channel in order, buffering any that arrive early.
+ * Once more than {@link net.daporkchop.loopback.util.Constants#STRIPE_REORDER_MAX} bytes are buffered, the stripes which are ahead stop reading
+ * until the missing chunk arrives. The chunks on a single stripe are always in order, so it can only arrive on a stripe which is behind.
+ * <p>
+ * When the local channel is closed, a chunk without any data containing the number of chunks sent is written to every stripe before it's
+ * closed, which lets the other end tell a finished connection apart from one which lost a stripe. Losing a stripe closes the whole connection.
+ * <p>
+ * This handler replaces the local channel's "handle" handler. The stripes may be on other event loops (io_uring channels can't be moved), so
+ * their events are handed over to the local channel's event loop, which is the only one that accesses any of the relay's state.
+ *
+ * @author DaPorkchop_
+ */
+public final class StripedRelay extends ChannelInboundHandlerAdapter {
+    protected final Channel   local;
+    protected final EventLoop loop;
+    protected final boolean   localInbound; //whether data read from the local channel counts as inbound traffic
+
+    private final Channel[]              stripes;
+    private final long[]                 lastReceived; //sequence number of the last chunk received on each stripe
+    private final boolean[]              ended; //whether the end of the connection was received on each stripe
+    private final LongObjectMap<ByteBuf> reorder = new LongObjectHashMap<>(); //chunks which arrived before the ones preceding them
+
+    private IdleTimeout  idle;
+    private ForwardStats stats;
+
+    private int     attached;
+    private int     cursor; //the stripe to prefer when several have the same amount of room
+    private long    dirty; //bitmask of the stripes which have been written to since they were last flushed
+    private boolean localDirty;
+    private long    sendSequence;
+    private long    receiveSequence;
+    private long    endSequence = -1L;
+    private long    reorderBytes;
+    private long    pendingSent; //only flushed to the stats once per read loop
+    private long    pendingReceived;
+    private boolean ending;
+    private boolean closed;
+
+    /**
+     * @param local        the channel to relay. It shouldn't read anything until all of the stripes are attached, after which this handler
+     *                     replaces its "handle" handler
+     * @param count        the number of stripes that will be attached
+     * @param localInbound whether data read from the local channel counts as inbound traffic for the forward
+     */
+    public StripedRelay(@NonNull Channel local, int count, boolean localInbound) {
+        if (count < 1 || count > STRIPE_MAX) throw new IllegalArgumentException(String.valueOf(count));
+
+        this.local = local;
+        this.loop = local.eventLoop();
+        this.localInbound = localInbound;
+        this.stripes = new Channel[count];
+        this.lastReceived = new long[count];
+        this.ended = new boolean[count];
+        Arrays.fill(this.lastReceived, -1L);
+
+        local.closeFuture().addListener((ChannelFutureListener) f -> this.localClosed());
+    }
+
+    /**
+     * Attaches a stripe to this relay.
+     * <p>
+     * Must be called from the stripe's event loop once everything before its first chunk has been read, and after its compression (if any) has
+     * been installed.
+     *
+     * @param index the stripe's index
+     */
+    public void attach(@NonNull Channel stripe, int index) {
+        if (index < 0 || index >= this.stripes.length) throw new IllegalArgumentException(String.valueOf(index));
+
+        stripe.attr(ATTR_BOUND).set(Boolean.TRUE);
+        this.execute(() -> this.register(stripe, index));
+
+        //everything after this point is made up of chunks, which have to be decoded after being decompressed
+        stripe.pipeline()
+                .addBefore("handle", "stripe", frameDecoder(STRIPE_MAX_FRAME))
+                .replace("handle", "handle", new StripeHandler(this, index));
+        removeFrameDecoder(stripe);
+    }
+
+    /**
+     * Runs a task on the relay's event loop, right away if the current thread is already on it.
+     */
+    void execute(@NonNull Runnable task) {
+        if (this.loop.inEventLoop()) {
+            task.run();
+        } else {
+            this.loop.execute(task);
+        }
+    }
+
+    private void register(@NonNull Channel stripe, int index) {
+        if (this.closed || this.stripes[index] != null) {
+            stripe.close();
+            return;
+        }
+
+        this.stripes[index] = stripe;
+        stripe.config().setAutoRead(this.shouldRead(index));
+        if (++this.attached == this.stripes.length) this.start();
+    }
+
+    private void start() {
+        this.idle = this.local.attr(ATTR_IDLE).get();
+        this.stats = this.local.attr(ATTR_STATS).get();
+
+        //anything the old handler was still holding on to is passed on to this one as it's removed
+        this.local.attr(ATTR_BOUND).set(Boolean.TRUE);
+        this.local.pipeline().replace("handle", "handle", this);
+        setupComplete(this.local);
+        this.local.config().setAutoRead(this.anyStripeWritable());
+    }
+
+    //local -> stripes
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ByteBuf buf = (ByteBuf) msg;
+        try {
+            this.pendingSent += buf.readableBytes();
+            while (buf.isReadable()) {
+                this.send(buf.readRetainedSlice(Math.min(buf.readableBytes(), STRIPE_CHUNK)));
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    private void send(@NonNull ByteBuf chunk) {
+        //pick the stripe with the most room left, starting after the last one so that stripes which all have room take turns
+        int n = this.stripes.length;
+        int index = 0;
+        long room = -1L;
+        for (int i = 0; i < n; i++) {
+            int j = (this.cursor + i) % n;
+            long r = this.stripes[j].bytesBeforeUnwritable();
+            if (r > room) {
+                index = j;
+                room = r;
+            }
+        }
+        this.cursor = (index + 1) % n;
+        this.dirty |= 1L << index;
+
+        Channel stripe = this.stripes[index];
+        stripe.write(stripe.alloc().ioBuffer(STRIPE_HEADER_BYTES).writeInt(8 + chunk.readableBytes()).writeLong(this.sendSequence++), stripe.voidPromise());
+        stripe.write(chunk, stripe.voidPromise());
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        for (long dirty = this.dirty; dirty != 0L; dirty &= dirty - 1L) this.stripes[Long.numberOfTrailingZeros(dirty)].flush();
+        this.dirty = 0L;
+
+        //stop reading while none of the stripes have any room left
+        ctx.channel().config().setAutoRead(this.anyStripeWritable());
+        if (this.idle != null) this.idle.touch();
+        if (this.stats != null && this.pendingSent != 0L) {
+            this.stats.transferred(this.localInbound, this.pendingSent);
+            this.pendingSent = 0L;
+        }
+
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        this.updateStripeReads();
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    void stripeWritabilityChanged() {
+        if (this.attached == this.stripes.length && !this.closed) this.local.config().setAutoRead(this.anyStripeWritable());
+    }
+
+    private boolean anyStripeWritable() {
+        for (Channel stripe : this.stripes) {
+            if (stripe.isWritable()) return true;
+        }
+        return false;
+    }
+
+    //stripes -> local
+
+    void received(int index, @NonNull ByteBuf chunk) {
+        long sequence = chunk.readLong();
+        this.lastReceived[index] = sequence;
+        if (!chunk.isReadable()) {
+            //the other end's local channel was closed, and this is the number of chunks it sent
+            chunk.release();
+            this.ended[index] = true;
+            this.endSequence = sequence;
+            return;
+        } else if (this.closed || this.ending) {
+            chunk.release();
+            return;
+        }
+
+        if (sequence == this.receiveSequence) {
+            this.deliver(chunk);
+            while ((chunk = this.reorder.remove(this.receiveSequence)) != null) {
+                this.reorderBytes -= chunk.readableBytes();
+                this.deliver(chunk);
+            }
+        } else if (sequence > this.receiveSequence && !this.reorder.containsKey(sequence)) {
+            this.reorderBytes += chunk.readableBytes();
+            this.reorder.put(sequence, chunk);
+        } else {
+            chunk.release();
+            this.local.attr(ATTR_LOG).get().error("Received chunk %d twice!", sequence);
+            this.local.close();
+        }
+    }
+
+    private void deliver(@NonNull ByteBuf chunk) {
+        this.receiveSequence++;
+        this.pendingReceived += chunk.readableBytes();
+        this.local.write(chunk, this.local.voidPromise());
+        this.localDirty = true;
+    }
+
+    void stripeReadComplete() {
+        if (this.localDirty) {
+            this.localDirty = false;
+            this.local.flush();
+        }
+        if (this.idle != null) this.idle.touch();
+        if (this.stats != null && this.pendingReceived != 0L) {
+            this.stats.transferred(!this.localInbound, this.pendingReceived);
+            this.pendingReceived = 0L;
+        }
+
+        if (!this.closed && !this.ending && this.receiveSequence == this.endSequence) {
+            //everything the other end sent has been received
+            this.ending = true;
+            this.local.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            this.updateStripeReads();
+        }
+    }
+
+    private void updateStripeReads() {
+        for (int i = 0; i < this.stripes.length; i++) {
+            Channel stripe = this.stripes[i];
+            if (stripe != null) {
+                boolean read = this.shouldRead(i);
+                if (stripe.config().isAutoRead() != read) stripe.config().setAutoRead(read);
+            }
+        }
+    }
+
+    private boolean shouldRead(int index) {
+        //while too much is buffered, only the stripes which could still be carrying the next chunk are read from
+        return this.local.isWritable() && (this.reorderBytes <= STRIPE_REORDER_MAX || this.lastReceived[index] < this.receiveSequence);
+    }
+
+    //closing
+
+    void stripeClosed(int index) {
+        if (!this.closed && !this.ended[index]) {
+            //some of the data on the stripe was lost, so the connection can't continue
+            this.local.attr(ATTR_LOG).get().debug("stripe %d closed unexpectedly", index);
+            if (this.local.hasAttr(ATTR_BOUND)) {
+                this.local.close();
+            } else { //the other end gave up before all of the stripes were set up
+                setupFailed(this.local);
+            }
+        }
+    }
+
+    private void localClosed() {
+        if (this.closed) return;
+        this.closed = true;
+
+        this.reorder.values().forEach(ByteBuf::release);
+        this.reorder.clear();
+        this.reorderBytes = 0L;
+
+        for (Channel stripe : this.stripes) {
+            if (stripe != null) {
+                stripe.writeAndFlush(stripe.alloc().ioBuffer(STRIPE_HEADER_BYTES).writeInt(8).writeLong(this.sendSequence))
+                        .addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.udp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import lombok.NonNull;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Collects records which are to be sent over a UDP link, so that all of the datagrams received in a single read loop can be sent using as few
+ * frames as possible.
+ * <p>
+ * Instances of this class are not thread-safe, they should only be used from a single event loop.
+ *
+ * @author DaPorkchop_
+ */
+public final class UdpBatch {
+    protected final List<ByteBuf> frames = new ArrayList<>();
+    protected       ByteBuf       frame;
+
+    public void open(@NonNull ByteBufAllocator alloc, long flow, int port, @NonNull InetSocketAddress sender) {
+        ByteBuf frame = this.frame(alloc, UDP_HEADER_BYTES + 2 + 4 + 255 + 2).writeByte(UDP_RECORD_OPEN).writeLong(flow).writeShort(port);
+        writeAddress(frame, sender);
+    }
+
+    /**
+     * Adds a datagram to the batch. The datagram's contents are copied, so the buffer isn't released.
+     */
+    public void data(@NonNull ByteBufAllocator alloc, long flow, @NonNull ByteBuf datagram) {
+        int length = datagram.readableBytes();
+        this.frame(alloc, UDP_HEADER_BYTES + 2 + length).writeByte(UDP_RECORD_DATA).writeLong(flow).writeShort(length)
+                .writeBytes(datagram, datagram.readerIndex(), length);
+    }
+
+    public void close(@NonNull ByteBufAllocator alloc, long flow) {
+        this.frame(alloc, UDP_HEADER_BYTES).writeByte(UDP_RECORD_CLOSE).writeLong(flow);
+    }
+
+    protected ByteBuf frame(@NonNull ByteBufAllocator alloc, int bytes) {
+        if (this.frame != null && this.frame.readableBytes() + bytes > UDP_MAX_FRAME) {
+            this.frames.add(endFrame(this.frame));
+            this.frame = null;
+        }
+        if (this.frame == null) this.frame = beginFrame(alloc, Math.max(bytes, 8192));
+        return this.frame;
+    }
+
+    /**
+     * Writes all of the batched records to the given link and flushes it.
+     * <p>
+     * The link may belong to another event loop. If there is no link, or it's no longer active, the records are dropped.
+     */
+    public void flush(Channel link) {
+        if (this.frame != null) {
+            this.frames.add(endFrame(this.frame));
+            this.frame = null;
+        }
+
+        int size = this.frames.size();
+        if (size == 0) return;
+
+        if (link != null && link.isActive()) {
+            for (int i = 0; i < size - 1; i++) link.write(this.frames.get(i), link.voidPromise());
+            link.writeAndFlush(this.frames.get(size - 1), link.voidPromise());
+        } else {
+            for (int i = 0; i < size; i++) this.frames.get(i).release();
+        }
+        this.frames.clear();
+    }
+}
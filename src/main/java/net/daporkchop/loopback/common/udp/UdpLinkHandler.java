@@ -0,0 +1,122 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.common.udp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.loopback.util.Timeouts;
+
+import java.net.InetSocketAddress;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Handles a UDP link, which carries the datagrams of every UDP forward between the client and the server.
+ * <p>
+ * Every frame is prefixed with its length (which is stripped by the "frame" decoder), and contains one or more records. Each record starts
+ * with a one-byte record type and the 8-byte flow ID, followed by the record's payload:
+ * <ul>
+ *     <li>{@code UDP_RECORD_OPEN}: the forwarded port and the flow's source address. Only sent by the server.</li>
+ *     <li>{@code UDP_RECORD_DATA}: a 2-byte length and the contents of a single datagram.</li>
+ *     <li>{@code UDP_RECORD_CLOSE}: nothing, the flow is gone.</li>
+ * </ul>
+ * A flow is the traffic between a single source address and the target of a forward. Flows are identified by the server, and expire once they
+ * have been idle for {@link Timeouts#UDP_IDLE_TIMEOUT} milliseconds.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public abstract class UdpLinkHandler extends ChannelInboundHandlerAdapter {
+    protected final UdpBatch batch = new UdpBatch(); //records to be sent by the link's own event loop
+
+    protected Channel channel;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.channel = ctx.channel();
+
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (!(msg instanceof ByteBuf)) throw new IllegalArgumentException(PorkUtil.className(msg));
+
+            ByteBuf buf = (ByteBuf) msg;
+            while (buf.isReadable()) {
+                int type = buf.readUnsignedByte();
+                long id = buf.readLong();
+                switch (type) {
+                    case UDP_RECORD_OPEN: {
+                        int port = buf.readUnsignedShort();
+                        this.flowOpened(id, port, readAddress(buf));
+                    }
+                    break;
+                    case UDP_RECORD_DATA: {
+                        ByteBuf datagram = buf.readSlice(buf.readUnsignedShort());
+                        this.flowData(id, datagram);
+                    }
+                    break;
+                    case UDP_RECORD_CLOSE:
+                        this.flowClosed(id);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Invalid record type: %d", type));
+                }
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        //send any records which were generated while handling this read loop
+        this.batch.flush(this.channel);
+
+        super.channelReadComplete(ctx);
+    }
+
+    /**
+     * Called when the remote end opens a new flow.
+     *
+     * @param id     the ID of the new flow
+     * @param port   the forwarded port that the flow was received on
+     * @param sender the address of the flow's source
+     */
+    protected abstract void flowOpened(long id, int port, InetSocketAddress sender);
+
+    /**
+     * Called when a datagram is received for a flow.
+     *
+     * @param id       the ID of the flow
+     * @param datagram the datagram's contents. This is a slice of the frame, which is released once all of its records have been handled
+     */
+    protected abstract void flowData(long id, ByteBuf datagram);
+
+    /**
+     * Called when the remote end closes a flow.
+     *
+     * @param id the ID of the flow
+     */
+    protected abstract void flowClosed(long id);
+}
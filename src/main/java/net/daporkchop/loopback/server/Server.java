@@ -15,28 +15,43 @@
 
 package net.daporkchop.loopback.server;
 
+import com.sun.nio.sctp.SctpStandardSocketOptions;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.util.collection.LongObjectHashMap;
-import io.netty.util.collection.LongObjectMap;
+import io.netty.channel.sctp.SctpChannelOption;
+import io.netty.channel.sctp.nio.NioSctpServerChannel;
+import io.netty.incubator.codec.quic.InsecureQuicTokenHandler;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicServerCodecBuilder;
+import io.netty.incubator.codec.quic.QuicSslContext;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.Future;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.common.metrics.Metrics;
+import net.daporkchop.loopback.common.metrics.MetricsHttpHandler;
 import net.daporkchop.loopback.server.backend.BackendChannelInitializer;
+import net.daporkchop.loopback.server.backend.QuicBackendChannelInitializer;
+import net.daporkchop.loopback.server.backend.SctpBackendChannelInitializer;
 import net.daporkchop.loopback.server.backend.ServerControlHandler;
+import net.daporkchop.loopback.server.frontend.ForwardGroup;
 import net.daporkchop.loopback.util.Endpoint;
+import net.daporkchop.loopback.util.SlotTable;
+import net.daporkchop.loopback.util.SslContexts;
+import net.daporkchop.loopback.util.Transport;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
@@ -48,7 +63,12 @@ public final class Server implements Endpoint {
     protected ServerChannel backendListener;
     protected ChannelGroup  allChannels;
 
-    protected List<ServerControlHandler> controlChannelsById;
+    protected volatile SlotTable<ServerControlHandler> controlChannelsById;
+
+    protected final IntObjectMap<ForwardGroup> forwardGroups = new IntObjectHashMap<>();
+
+    @Getter
+    protected final Metrics metrics = new Metrics();
 
     @Getter
     @NonNull
@@ -59,19 +79,71 @@ public final class Server implements Endpoint {
     @Override
     public synchronized void start() {
         if (this.backendListener != null || this.allChannels != null) throw new IllegalStateException();
+        if (MUX_SCTP && (TRANSPORT != Transport.NIO || !PLAINTEXT)) throw new IllegalStateException("SCTP links require the nio transport and plaintext mode!");
+        if (TRANSPORT == Transport.IO_URING) {
+            Logging.logger.warn("io_uring channels can't be moved between event loops, control channels will share the I/O threads with data channels");
+        }
 
         this.allChannels = new DefaultChannelGroup(GROUP.next());
-        this.controlChannelsById = Collections.synchronizedList(new ArrayList<>());
+        this.controlChannelsById = new SlotTable<>(SERVER_MAX_CONTROL_CHANNELS);
 
-        this.backendListener = (ServerChannel) new ServerBootstrap().group(GROUP)
+        this.backendListener = (ServerChannel) new ServerBootstrap().group(BOSS_GROUP, GROUP)
                 .channelFactory(SERVER_CHANNEL_FACTORY)
                 .childHandler(new BackendChannelInitializer(this))
                 .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, RECV_BUF_ALLOCATOR)
                 .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
                 .childAttr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
-                .bind(59989).syncUninterruptibly().channel();
+                .bind(this.port).syncUninterruptibly().channel();
         this.allChannels.add(this.backendListener);
+
+        if (MUX_SCTP) {
+            //links can also be opened as SCTP associations, which have their own port space so the same port can be used
+            this.allChannels.add(new ServerBootstrap().group(BOSS_GROUP, GROUP)
+                    .channelFactory(NioSctpServerChannel::new)
+                    .childHandler(new SctpBackendChannelInitializer(this))
+                    .option(SctpChannelOption.SCTP_INIT_MAXSTREAMS, SctpStandardSocketOptions.InitMaxStreams.create(MUX_SCTP_STREAMS, MUX_SCTP_STREAMS))
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(SctpChannelOption.SCTP_NODELAY, true)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                    .childAttr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                    .bind(this.port).syncUninterruptibly().channel());
+        }
+
+        if (QUIC) {
+            //QUIC links are accepted on a single datagram channel on the same port, the codec demultiplexes them by connection id
+            QuicSslContext context = SslContexts.quicServer();
+            this.allChannels.add(new Bootstrap().group(GROUP)
+                    .channelFactory(DATAGRAM_CHANNEL_FACTORY)
+                    .handler(new QuicServerCodecBuilder()
+                            .sslContext(context)
+                            .maxIdleTimeout(QUIC_IDLE_TIMEOUT, TimeUnit.MILLISECONDS)
+                            .initialMaxData(QUIC_MAX_DATA)
+                            .initialMaxStreamDataBidirectionalLocal(QUIC_WINDOW)
+                            .initialMaxStreamDataBidirectionalRemote(QUIC_WINDOW)
+                            .initialMaxStreamsBidirectional(QUIC_MAX_STREAMS)
+                            .tokenHandler(InsecureQuicTokenHandler.INSTANCE) //validates the client address, which costs a round trip for each new link
+                            .handler(new ChannelInitializer<QuicChannel>() {
+                                @Override
+                                protected void initChannel(QuicChannel channel) throws Exception {
+                                    Server.this.allChannels.add(channel);
+                                }
+                            })
+                            .streamHandler(new QuicBackendChannelInitializer(this))
+                            .streamOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                            .streamOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                            .streamAttr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                            .build())
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(ChannelOption.SO_RCVBUF, UDP_BUFFER)
+                    .option(ChannelOption.SO_SNDBUF, UDP_BUFFER)
+                    .bind(this.port).syncUninterruptibly().channel());
+        }
+
+        Channel metricsListener = MetricsHttpHandler.bind(this.metrics);
+        if (metricsListener != null) this.allChannels.add(metricsListener);
     }
 
     @Override
@@ -79,6 +151,9 @@ public final class Server implements Endpoint {
         if (this.backendListener == null || this.allChannels == null) throw new IllegalStateException();
 
         this.controlChannelsById = null;
+        synchronized (this.forwardGroups) {
+            this.forwardGroups.clear();
+        }
 
         //close the channel group, the future will not be completed until every single channel has been closed
         return this.allChannels.close().addListener(f -> {
@@ -87,28 +162,50 @@ public final class Server implements Endpoint {
         });
     }
 
-    public synchronized long addControlChannel(@NonNull ServerControlHandler channel) {
-        if (this.backendListener == null || this.allChannels == null) throw new IllegalStateException();
+    public long addControlChannel(@NonNull ServerControlHandler channel) {
+        SlotTable<ServerControlHandler> controlChannelsById = this.controlChannelsById;
+        if (controlChannelsById == null) throw new IllegalStateException();
 
-        int id = this.controlChannelsById.indexOf(null);
-        if (id == -1) {
-            id = this.controlChannelsById.size();
-            this.controlChannelsById.add(channel);
-        } else {
-            this.controlChannelsById.set(id, channel);
+        long id = controlChannelsById.add(channel);
+        if (id == -1L) throw new IllegalStateException("Too many control channels!");
+        channel.channel().closeFuture().addListener((ChannelFutureListener) future -> controlChannelsById.remove(id));
+        return id;
+    }
+
+    /**
+     * Adds a client to the group for the given port, creating it and binding the port if there isn't one yet.
+     */
+    public ForwardGroup joinForward(int port, @NonNull ServerControlHandler control, int weight) {
+        synchronized (this.forwardGroups) {
+            ForwardGroup group = this.forwardGroups.get(port);
+            if (group == null || !group.isOpen()) {
+                this.forwardGroups.put(port, group = new ForwardGroup(this, port));
+                this.allChannels.add(group.channel());
+            }
+            if (group.join(control, weight) && group.size() > 1) {
+                Logging.logger.info("Client %d joined the forward on port %d, now shared by %d clients", control.id(), port, group.size());
+            }
+            return group;
         }
-        channel.channel().closeFuture().addListener((ChannelFutureListener) future -> {
-            if (this.controlChannelsById != null)   {
-                this.controlChannelsById.set((int) channel.id(), null);
+    }
+
+    /**
+     * Removes a client from a group, which is closed once there are no clients left.
+     */
+    public void leaveForward(@NonNull ForwardGroup group, @NonNull ServerControlHandler control) {
+        synchronized (this.forwardGroups) {
+            if (group.leave(control) && group.size() == 0) {
+                this.forwardGroups.remove(group.port(), group);
+                group.channel().close();
             }
-        });
-        return id;
+        }
     }
 
-    public synchronized ServerControlHandler getControlChannel(long id) {
-        if (this.backendListener == null || this.allChannels == null) throw new IllegalStateException();
+    public ServerControlHandler getControlChannel(long id) {
+        SlotTable<ServerControlHandler> controlChannelsById = this.controlChannelsById;
+        if (controlChannelsById == null) throw new IllegalStateException();
 
-        ServerControlHandler handler = this.controlChannelsById.get((int) id);
+        ServerControlHandler handler = controlChannelsById.get(id);
         if (handler == null) throw new IllegalArgumentException(Long.toUnsignedString(id));
         return handler;
     }
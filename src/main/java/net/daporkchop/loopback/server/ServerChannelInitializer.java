@@ -15,14 +15,15 @@
 
 package net.daporkchop.loopback.server;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import net.daporkchop.lib.logging.Logging;
-
-import java.util.concurrent.TimeUnit;
+import net.daporkchop.loopback.util.Timeouts;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
@@ -31,20 +32,19 @@ import static net.daporkchop.loopback.util.Constants.*;
  */
 @RequiredArgsConstructor
 @Getter
-public abstract class ServerChannelInitializer extends ChannelInitializer<SocketChannel> {
+public abstract class ServerChannelInitializer<C extends Channel> extends ChannelInitializer<C> {
     @NonNull
     protected final Server server;
 
     @Override
-    protected void initChannel(SocketChannel channel) throws Exception {
+    protected void initChannel(C channel) throws Exception {
         this.server.allChannels.add(channel); //add to channel group so that we can bulk-disconnect all channels when we shut down
 
-        channel.eventLoop().schedule(() -> {
-            synchronized (channel) {//close channel if bound attribute is not yet set
-                if (channel.isRegistered() && !channel.hasAttr(ATTR_BOUND)) {
-                    channel.close();
-                }
-            }
-        }, SERVER_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+        if (SPLICE && channel instanceof EpollSocketChannel) {
+            //splice() is only supported in level-triggered mode
+            ((EpollSocketChannel) channel).config().setEpollMode(EpollMode.LEVEL_TRIGGERED);
+        }
+
+        Timeouts.closeIfNotBound(channel); //close channel if it doesn't authenticate or get bound to a backend channel in time
     }
 }
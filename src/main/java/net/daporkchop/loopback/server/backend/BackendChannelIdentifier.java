@@ -16,6 +16,8 @@
 package net.daporkchop.loopback.server.backend;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -26,7 +28,6 @@ import net.daporkchop.lib.common.util.PorkUtil;
 import net.daporkchop.lib.logging.Logging;
 import net.daporkchop.loopback.common.CommonHandler;
 import net.daporkchop.loopback.server.Server;
-import net.daporkchop.loopback.server.ServerCommonHandler;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
@@ -51,32 +52,50 @@ public final class BackendChannelIdentifier extends ChannelInboundHandlerAdapter
             }
 
             ByteBuf buf = (ByteBuf) msg;
-            if (buf.readableBytes() != PASSWORD_BYTES && buf.readableBytes() != PASSWORD_BYTES + 8) {
-                ctx.channel().attr(ATTR_LOG).get().error("Identification message is only %d bytes long!", buf.readableBytes());
+            if (buf.readableBytes() != IDENTIFICATION_BYTES) {
+                ctx.channel().attr(ATTR_LOG).get().error("Identification message is %d bytes long!", buf.readableBytes());
+                ctx.channel().close();
+                return;
+            }
+
+            int version = buf.readUnsignedByte();
+            if (version != PROTOCOL_VERSION) {
+                ctx.channel().attr(ATTR_LOG).get().error("Unsupported protocol version %d (expected %d)!", version, PROTOCOL_VERSION);
                 ctx.channel().close();
                 return;
             }
 
             byte[] password = this.server.password();
             for (int i = 0; i < PASSWORD_BYTES; i++)    {
-                if (buf.getByte(i) != password[i])  {
+                if (buf.readByte() != password[i])  {
                     ctx.channel().attr(ATTR_LOG).get().warn("Attempted to authenticate with invalid password!");
                     ctx.channel().close();
                     return;
                 }
             }
 
-            switch (buf.readableBytes())    {
-                case PASSWORD_BYTES: //client connection
+            int type = buf.readUnsignedByte();
+            long controlId = buf.readLong();
+            switch (type)    {
+                case CHANNEL_CONTROL: //client connection
                     ctx.channel().attr(ATTR_LOG).get().debug("valid password (control)");
                     ctx.channel().pipeline().replace("handle", "handle", new ServerControlHandler(this.server));
+                    this.moveToControlGroup(ctx.channel());
                     break;
-                case PASSWORD_BYTES + 8:
-                    this.server.getControlChannel(buf.getLong(PASSWORD_BYTES)).backendChannel(ctx.channel());
+                case CHANNEL_DATA:
+                    this.server.getControlChannel(controlId).backendChannel(ctx.channel());
                     ctx.channel().attr(ATTR_LOG).get().debug("valid password+id (data)");
                     break;
+                case CHANNEL_MUX_LINK:
+                    this.server.getControlChannel(controlId).muxLink(ctx.channel());
+                    ctx.channel().attr(ATTR_LOG).get().debug("valid password+id (link)");
+                    break;
+                case CHANNEL_UDP_LINK:
+                    this.server.getControlChannel(controlId).udpLink(ctx.channel());
+                    ctx.channel().attr(ATTR_LOG).get().debug("valid password+id (udp link)");
+                    break;
                 default:
-                    throw new IllegalStateException();
+                    throw new IllegalArgumentException(String.format("Invalid channel type: %d", type));
             }
 
             ctx.channel().attr(ATTR_BOUND).set(Boolean.TRUE);
@@ -84,4 +103,25 @@ public final class BackendChannelIdentifier extends ChannelInboundHandlerAdapter
             ReferenceCountUtil.release(msg);
         }
     }
+
+    /**
+     * Moves a control channel off of the I/O group, which it was accepted on.
+     * <p>
+     * Any commands which were received along with the identification message are still handled on the I/O loop before the channel is moved.
+     * Nothing is written to the channel directly from other threads (see {@link ServerControlHandler#send(ByteBuf)}), so it's safe to move.
+     * <p>
+     * io_uring channels can't be moved at all and stay on the I/O loop they were accepted on, so with io_uring control channels can be slowed
+     * down by busy data channels. {@link Server} warns about this when it's started.
+     */
+    protected void moveToControlGroup(@NonNull Channel channel) {
+        channel.config().setAutoRead(false);
+        moveToEventLoop(channel, CONTROL_GROUP.next()).addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                channel.config().setAutoRead(true);
+                channel.flush();
+            } else {
+                channel.close();
+            }
+        });
+    }
 }
@@ -16,53 +16,42 @@
 package net.daporkchop.loopback.server.backend;
 
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
-import io.netty.handler.ssl.util.SelfSignedCertificate;
 import lombok.NonNull;
 import net.daporkchop.loopback.common.CommonHandler;
 import net.daporkchop.loopback.server.Server;
 import net.daporkchop.loopback.server.ServerChannelInitializer;
-import net.daporkchop.loopback.server.ServerCommonHandler;
+import net.daporkchop.loopback.util.SslContexts;
 
-import javax.net.ssl.SSLException;
-import java.security.cert.CertificateException;
+import static net.daporkchop.loopback.util.Constants.*;
 
 /**
  * @author DaPorkchop_
  */
-public final class BackendChannelInitializer extends ServerChannelInitializer {
-    private static final SslContext CONTEXT;
-
-    static {
-        SslContext context = null;
-        try {
-            SelfSignedCertificate cert = new SelfSignedCertificate();
-            cert.delete();
-            context = SslContextBuilder.forServer(cert.key(), cert.cert()).clientAuth(ClientAuth.OPTIONAL).build();
-        } catch (CertificateException | SSLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            CONTEXT = context;
-        }
-    }
-
+public final class BackendChannelInitializer extends ServerChannelInitializer<SocketChannel> {
     protected final BackendChannelIdentifier identifier;
+    protected final SslContext               context;
 
     public BackendChannelInitializer(@NonNull Server server) {
         super(server);
 
         this.identifier = new BackendChannelIdentifier(server);
+        //the self-signed certificate isn't generated at all in plaintext mode, as that needs BouncyCastle on newer JDKs
+        this.context = PLAINTEXT ? null : SslContexts.server();
     }
 
     @Override
     protected void initChannel(SocketChannel channel) throws Exception {
         super.initChannel(channel);
 
+        if (!PLAINTEXT) {
+            SslHandler ssl = new SslHandler(this.context.newEngine(channel.alloc()), false);
+            ssl.setHandshakeTimeoutMillis(0L); //covered by the setup timeout
+            channel.pipeline().addLast("ssl", ssl);
+        }
         channel.pipeline()
-                .addLast("ssl", new SslHandler(CONTEXT.newEngine(channel.alloc()), false))
+                .addLast("frame", frameDecoder(CONTROL_MAX_FRAME))
                 .addLast("handle", this.identifier)
                 .addLast("common", CommonHandler.INSTANCE);
     }
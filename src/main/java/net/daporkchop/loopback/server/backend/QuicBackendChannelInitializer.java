@@ -13,41 +13,39 @@
  *
  */
 
-package net.daporkchop.loopback.server;
+package net.daporkchop.loopback.server.backend;
 
-import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPromise;
-import lombok.AccessLevel;
-import lombok.NoArgsConstructor;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import lombok.NonNull;
 import net.daporkchop.loopback.common.CommonHandler;
+import net.daporkchop.loopback.server.Server;
+import net.daporkchop.loopback.server.ServerChannelInitializer;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
 /**
+ * Sets up streams opened by the client on a QUIC link.
+ * <p>
+ * Every stream is identified just like a backend channel accepted over TCP (which it replaces), the QUIC connection already being encrypted.
+ *
  * @author DaPorkchop_
  */
-@NoArgsConstructor(access = AccessLevel.PRIVATE)
-@ChannelHandler.Sharable
-public final class ServerCommonHandler extends CommonHandler {
-    public static final ServerCommonHandler INSTANCE = new ServerCommonHandler();
+public final class QuicBackendChannelInitializer extends ServerChannelInitializer<QuicStreamChannel> {
+    protected final BackendChannelIdentifier identifier;
 
-    @Override
-    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-        //fired by forwarding handlers every time a message is received on a backend/frontend transport channel
-        if (evt == ATTR_IDLE) {
-            //set idle time to current time
-            ctx.channel().attr(ATTR_IDLE).get().set(System.currentTimeMillis());
-        }
-
-        super.userEventTriggered(ctx, evt);
+    public QuicBackendChannelInitializer(@NonNull Server server) {
+        super(server);
+
+        this.identifier = new BackendChannelIdentifier(server);
     }
 
     @Override
-    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-        //set idle time to current time
-        ctx.channel().attr(ATTR_IDLE).get().set(System.currentTimeMillis());
+    protected void initChannel(QuicStreamChannel channel) throws Exception {
+        super.initChannel(channel);
 
-        super.write(ctx, msg, promise);
+        channel.pipeline()
+                .addLast("frame", frameDecoder(CONTROL_MAX_FRAME))
+                .addLast("handle", this.identifier)
+                .addLast("common", CommonHandler.INSTANCE);
     }
 }
@@ -25,7 +25,7 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import net.daporkchop.loopback.common.CommonHandler;
-import net.daporkchop.loopback.server.ServerCommonHandler;
+import net.daporkchop.loopback.common.compression.Compression;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
@@ -41,21 +41,28 @@ public final class ServerBackendTransportHandler extends ChannelDuplexHandler {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (ctx.channel().hasAttr(ATTR_PAIR))    {
-            ctx.channel().attr(ATTR_PAIR).get().writeAndFlush(msg).addListener(DO_READ_HANDLER);
-        } else {
-            try {
-                if (msg instanceof ByteBuf) {
-                    ByteBuf buf = (ByteBuf) msg;
-                    if (buf.readableBytes() != 8) throw new IllegalStateException();
+        try {
+            if (msg instanceof ByteBuf) {
+                ByteBuf buf = (ByteBuf) msg;
+                if (buf.readableBytes() != CHANNEL_ID_BYTES) throw new IllegalStateException(String.format("Channel ID message is %d bytes long!", buf.readableBytes()));
 
-                    this.control.backendChannelReady(ctx.channel(), buf.readLong());
+                long id = buf.readLong();
+                Compression compression = Compression.byId(buf.readUnsignedByte());
+                int index = buf.readUnsignedByte();
+                int count = buf.readUnsignedByte();
+                if (count < 1 || count > STRIPE_MAX || index >= count) throw new IllegalStateException(String.format("Invalid stripe %d/%d!", index, count));
+
+                compression.install(ctx.channel());
+                if (count == 1) {
+                    this.control.backendChannelReady(ctx.channel(), id);
                 } else {
-                    throw new IllegalStateException();
+                    this.control.stripeReady(ctx.channel(), id, index, count);
                 }
-            } finally {
-                ReferenceCountUtil.release(msg);
+            } else {
+                throw new IllegalStateException();
             }
+        } finally {
+            ReferenceCountUtil.release(msg);
         }
     }
 }
@@ -15,7 +15,7 @@
 
 package net.daporkchop.loopback.server.backend;
 
-import io.netty.bootstrap.ServerBootstrap;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
@@ -23,24 +23,32 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.collection.IntObjectHashMap;
 import io.netty.util.collection.IntObjectMap;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import net.daporkchop.lib.common.util.PorkUtil;
 import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.common.compression.Compression;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.common.stripe.StripedRelay;
 import net.daporkchop.loopback.server.Server;
-import net.daporkchop.loopback.server.frontend.FrontendChannelInitializer;
+import net.daporkchop.loopback.server.frontend.ForwardGroup;
+import net.daporkchop.loopback.server.frontend.UdpFlow;
+import net.daporkchop.loopback.server.frontend.UdpForwardHandler;
+import net.daporkchop.loopback.util.SlotTable;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
@@ -52,42 +60,60 @@ import static net.daporkchop.loopback.util.Constants.*;
 @RequiredArgsConstructor
 @Getter
 public final class ServerControlHandler extends ChannelInboundHandlerAdapter {
+    private static final AtomicIntegerFieldUpdater<ServerControlHandler> FLUSH_PENDING_UPDATER = AtomicIntegerFieldUpdater.newUpdater(ServerControlHandler.class, "flushPending");
+
     @NonNull
     protected final Server server;
 
     protected final ServerBackendTransportHandler transportHandler = new ServerBackendTransportHandler(this);
 
-    private   List<Channel>               waitingChannels;
-    private   ChannelGroup                allChannels;
-    private   IntObjectMap<ServerChannel> boundChannels;
-    protected Channel                     channel;
-    protected long                        id;
+    private final      SlotTable<Channel>          waitingChannels = new SlotTable<>(SERVER_MAX_WAITING_CHANNELS);
+    private final      SlotTable<UdpFlow>          udpFlows        = new SlotTable<>(SERVER_MAX_UDP_FLOWS);
+    private final      LongObjectMap<StripedRelay> stripedRelays   = new LongObjectHashMap<>(); //by connection ID, synchronized on itself
+    private            ChannelGroup                allChannels;
+    private            IntObjectMap<ForwardGroup>  forwardGroups;
+    private            IntObjectMap<Channel>       boundUdpChannels;
+    protected          Channel                     channel;
+    protected volatile Channel                     udpLink;
+    protected          long                        id;
+
+    @Getter(AccessLevel.NONE)
+    private final    Queue<ByteBuf> sendQueue = new ConcurrentLinkedQueue<>();
+    @Getter(AccessLevel.NONE)
+    private volatile int            flushPending;
+    @Getter(AccessLevel.NONE)
+    private final    Runnable       flushTask = () -> {
+        this.flushPending = 0;
+        for (ByteBuf frame; (frame = this.sendQueue.poll()) != null; ) this.channel.write(frame, this.channel.voidPromise());
+        this.channel.flush();
+    };
 
     @Override
     public synchronized void handlerAdded(ChannelHandlerContext ctx) throws Exception {
         if (this.channel != null) throw new IllegalStateException("Channel already set!");
 
         this.channel = ctx.channel();
-        this.id = this.server.addControlChannel(this);
-
-        this.waitingChannels = new ArrayList<>();
         this.allChannels = new DefaultChannelGroup(this.channel.eventLoop());
+        this.forwardGroups = new IntObjectHashMap<>();
+        this.boundUdpChannels = new IntObjectHashMap<>();
 
-        this.boundChannels = new IntObjectHashMap<>();
-
-        this.channel.writeAndFlush(ctx.alloc().ioBuffer(9).writeByte(CONTROL_HANDSHAKE).writeLong(this.id)); //send self channel ID to remote server
+        //this publishes the handler to other threads, so everything they use has to be initialized first
+        this.id = this.server.addControlChannel(this);
 
-        //check for timed out channels every 5 seconds and close them
-        this.channel.eventLoop().scheduleAtFixedRate(() -> this.allChannels.close(TIMEOUT_MATCHER), 15L, 5L, TimeUnit.SECONDS);
+        //send protocol version, self channel ID and the supported compression algorithms to remote server
+        this.channel.writeAndFlush(endFrame(beginFrame(ctx.alloc(), 11).writeByte(CONTROL_HANDSHAKE).writeByte(PROTOCOL_VERSION).writeLong(this.id)
+                .writeByte(Compression.availableMask())));
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
         ctx.channel().attr(ATTR_LOG).get().info("Control channel disconnected! Closing everything.");
+        this.forwardGroups.values().forEach(group -> this.server.leaveForward(group, this));
+        this.forwardGroups = null;
         this.allChannels.close();
         this.allChannels = null;
-        this.waitingChannels.clear();
-        this.waitingChannels = null;
+
+        for (ByteBuf frame; (frame = this.sendQueue.poll()) != null; ) frame.release();
     }
 
     @Override
@@ -96,91 +122,213 @@ public final class ServerControlHandler extends ChannelInboundHandlerAdapter {
             if (!(msg instanceof ByteBuf)) throw new IllegalArgumentException(PorkUtil.className(msg));
 
             ByteBuf buf = (ByteBuf) msg;
-            int command = buf.readUnsignedByte();
-            switch (command) {
-                case CONTROL_ADD: {
-                    int port = buf.readUnsignedShort();
-                    ServerChannel channel = (ServerChannel) new ServerBootstrap().group(GROUP)
-                            .channelFactory(SERVER_CHANNEL_FACTORY)
-                            .childHandler(new FrontendChannelInitializer(this))
-                            .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                            .childOption(ChannelOption.AUTO_READ, false)
-                            .childOption(ChannelOption.TCP_NODELAY, true)
-                            .childOption(ChannelOption.SO_KEEPALIVE, true)
-                            .childAttr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
-                            .bind(port)
-                            .addListener((ChannelFutureListener) f -> {
-                                if (f.isSuccess()) {
-                                    this.channel.writeAndFlush(this.channel.alloc().ioBuffer(5)
-                                            .writeByte(CONTROL_RESULT)
-                                            .writeShort(port)
-                                            .writeByte(0).writeByte(1));
-                                    Logging.logger.success("Forwarding connections from port %d!", port);
-                                } else {
-                                    this.channel.writeAndFlush(this.channel.alloc().ioBuffer(5)
-                                            .writeByte(CONTROL_RESULT)
-                                            .writeShort(port)
-                                            .writeByte(0).writeByte(0));
-                                    Logging.logger.error("Failed to bind to %d!", port);
-                                }
-                            }).channel();
-
-                    if (this.boundChannels.putIfAbsent(port, channel) != null || !this.allChannels.add(channel)) {
-                        throw new IllegalStateException();
-                    }
-                }
-                break;
-                case CONTROL_REMOVE: {
-                    int port = buf.readUnsignedShort();
-                    ServerChannel toClose = this.boundChannels.remove(port);
-                    if (toClose != null) { //we don't need to close the connections, they can be left open to be closed by the target application
-                        toClose.close();
-                        this.channel.writeAndFlush(this.channel.alloc().ioBuffer(5)
-                                .writeByte(CONTROL_RESULT)
-                                .writeShort(port)
-                                .writeByte(1).writeByte(1));
-                    } else {
-                        this.channel.writeAndFlush(this.channel.alloc().ioBuffer(5)
-                                .writeByte(CONTROL_RESULT)
-                                .writeShort(port)
-                                .writeByte(1).writeByte(0));
-                    }
+            while (buf.isReadable()) {
+                int command = buf.readUnsignedByte();
+                switch (command) {
+                    case CONTROL_ADD:
+                        this.addForward(buf.readUnsignedShort(), buf.readUnsignedByte());
+                        break;
+                    case CONTROL_REMOVE:
+                        this.removeForward(buf.readUnsignedShort());
+                        break;
+                    case CONTROL_ADD_UDP:
+                        this.addUdpForward(buf.readUnsignedShort());
+                        break;
+                    case CONTROL_REMOVE_UDP:
+                        this.removeUdpForward(buf.readUnsignedShort());
+                        break;
+                    case CONTROL_REFUSE:
+                        this.refuseChannel(buf.readLong());
+                        break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Invalid command ID: %d", command));
                 }
-                break;
-                default:
-                    throw new IllegalArgumentException(String.format("Invalid command ID: %d", command));
             }
         } finally {
             ReferenceCountUtil.release(msg);
         }
     }
 
-    public synchronized void backendChannel(@NonNull Channel channel) {
+    protected void addForward(int port, int weight) {
+        //a group whose port couldn't be bound is left behind until the forward is added again
+        ForwardGroup old = this.forwardGroups.get(port);
+        if (old != null && old.isOpen()) {
+            this.sendResult(port, false, false, false);
+            return;
+        }
+
+        ForwardGroup group = this.server.joinForward(port, this, weight);
+        this.forwardGroups.put(port, group);
+        group.bindFuture().addListener(f -> this.sendResult(port, false, false, f.isSuccess()));
+    }
+
+    protected void removeForward(int port) {
+        //we don't need to close the connections, they can be left open to be closed by the target application
+        ForwardGroup group = this.forwardGroups.remove(port);
+        if (group != null) this.server.leaveForward(group, this);
+        this.sendResult(port, false, true, group != null);
+    }
+
+    protected void addUdpForward(int port) {
+        //like tcp forwards, a channel whose port couldn't be bound is left behind until the forward is added again
+        Channel old = this.boundUdpChannels.get(port);
+        if (old != null && old.isOpen()) {
+            this.sendResult(port, true, false, false);
+            return;
+        }
+
+        //the stats are shared with any other client which is forwarding the same port, so they're only removed by whoever actually bound it
+        boolean newStats = this.server.metrics().get(port, true) == null;
+        ForwardStats stats = this.server.metrics().forward(port, true, null);
+        Channel channel = TRANSPORT.datagramOptions(new Bootstrap(), UDP_MAX_DATAGRAM, UDP_READ_BATCH).group(GROUP)
+                .channelFactory(DATAGRAM_CHANNEL_FACTORY)
+                .handler(new UdpForwardHandler(this, stats, port))
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_RCVBUF, UDP_BUFFER)
+                .option(ChannelOption.SO_SNDBUF, UDP_BUFFER)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .attr(ATTR_LOG, Logging.logger.channel(":" + port + "/udp"))
+                .bind(port)
+                .addListener((ChannelFutureListener) f -> {
+                    this.sendResult(port, true, false, f.isSuccess());
+                    if (f.isSuccess()) {
+                        Logging.logger.success("Forwarding datagrams from port %d!", port);
+                        f.channel().closeFuture().addListener(f1 -> this.server.metrics().remove(stats));
+                    } else {
+                        Logging.logger.error("Failed to bind to %d/udp!", port);
+                        if (newStats) this.server.metrics().remove(stats);
+                    }
+                }).channel();
+
+        this.boundUdpChannels.put(port, channel);
+        if (!this.allChannels.add(channel)) throw new IllegalStateException();
+    }
+
+    protected void removeUdpForward(int port) {
+        Channel toClose = this.boundUdpChannels.remove(port);
+        if (toClose != null) toClose.close();
+        this.sendResult(port, true, true, toClose != null);
+    }
+
+    protected void sendResult(int port, boolean udp, boolean remove, boolean success) {
+        this.send(endFrame(beginFrame(this.channel.alloc(), 5)
+                .writeByte(CONTROL_RESULT)
+                .writeShort(port)
+                .writeByte((remove ? RESULT_REMOVE : 0) | (udp ? RESULT_UDP : 0))
+                .writeBoolean(success)));
+    }
+
+    /**
+     * Writes a frame to the control channel.
+     * <p>
+     * Frames may be sent from any thread, and are written and flushed together once the control channel's event loop gets to them, so that a
+     * burst of messages only costs a single syscall.
+     */
+    protected void send(@NonNull ByteBuf frame) {
+        //the frame is queued rather than written directly, so that it can't end up behind a flush task which was already scheduled
+        this.sendQueue.add(frame);
+        if (this.flushPending == 0 && FLUSH_PENDING_UPDATER.compareAndSet(this, 0, 1)) {
+            this.channel.eventLoop().execute(this.flushTask);
+        }
+    }
+
+    public void backendChannel(@NonNull Channel channel) {
         channel.pipeline().replace("handle", "handle", this.transportHandler);
     }
 
-    public synchronized void backendChannelReady(@NonNull Channel channel, long id) {
-        Channel waiting = this.waitingChannels.set((int) id, null);
-        if (waiting == null) throw new NullPointerException(Long.toUnsignedString(id));
+    public void muxLink(@NonNull Channel channel) {
+        this.allChannels.add(channel);
+        channel.pipeline().replace("frame", "frame", frameDecoder(MUX_MAX_FRAME));
+        channel.pipeline().replace("handle", "handle", new ServerMuxLinkHandler(this));
+    }
+
+    public void udpLink(@NonNull Channel channel) {
+        this.allChannels.add(channel);
+        channel.pipeline().replace("frame", "frame", frameDecoder(UDP_MAX_FRAME));
+        channel.pipeline().replace("handle", "handle", new ServerUdpLinkHandler(this));
+
+        //the client only keeps one link open, so a new one replaces whatever was there before
+        Channel old = this.udpLink;
+        this.udpLink = channel;
+        if (old != null) old.close();
+        channel.closeFuture().addListener((ChannelFutureListener) f -> {
+            if (this.udpLink == channel) this.udpLink = null;
+        });
+    }
+
+    public void backendChannelReady(@NonNull Channel channel, long id) {
+        Channel waiting = this.takeWaitingChannel(id);
+        if (waiting == null) throw new IllegalArgumentException(Long.toUnsignedString(id));
         bindChannels(channel, waiting);
     }
 
-    public synchronized void incomingChannel(@NonNull Channel channel) {
-        int id = this.waitingChannels.indexOf(null);
-        if (id == -1) {
-            id = this.waitingChannels.size();
-            this.waitingChannels.add(channel);
-        } else {
-            this.waitingChannels.set(id, channel);
+    /**
+     * Attaches one of the stripes of a striped connection to its relay, which is created as soon as the first stripe arrives.
+     */
+    public void stripeReady(@NonNull Channel channel, long id, int index, int count) {
+        StripedRelay relay;
+        synchronized (this.stripedRelays) {
+            relay = this.stripedRelays.get(id);
+            if (relay == null) {
+                Channel waiting = this.takeWaitingChannel(id);
+                if (waiting == null) throw new IllegalArgumentException(Long.toUnsignedString(id));
+                this.stripedRelays.put(id, relay = new StripedRelay(waiting, count, true));
+
+                //the frontend connection is closed by its setup timeout if some of the stripes never arrive, which frees up the entry
+                waiting.closeFuture().addListener((ChannelFutureListener) f -> {
+                    synchronized (this.stripedRelays) {
+                        this.stripedRelays.remove(id);
+                    }
+                });
+            }
         }
+        relay.attach(channel, index);
+    }
+
+    /**
+     * Closes a frontend connection which the client couldn't set up, rather than leaving it open until the setup timeout expires.
+     * <p>
+     * A connection which was already picked up by a data channel or stream is left alone, it's closed when that goes away.
+     */
+    protected void refuseChannel(long id) {
+        Channel waiting = this.takeWaitingChannel(id);
+        if (waiting != null) setupFailed(waiting);
+    }
 
-        ByteBuf buf = this.channel.alloc().ioBuffer()
+    public Channel takeWaitingChannel(long id) {
+        return this.waitingChannels.remove(id);
+    }
+
+    /**
+     * Notifies the client of a new frontend connection.
+     *
+     * @param earlyData the first bytes sent by the connection, which the client writes to the target as soon as it's connected. May be
+     *                  {@code null}, and is released once it has been sent
+     */
+    public void incomingChannel(@NonNull Channel channel, ByteBuf earlyData) {
+        long id = this.waitingChannels.add(channel);
+        if (id == -1L) {
+            channel.attr(ATTR_LOG).get().error("Too many waiting connections, dropping %s", channel.remoteAddress());
+            setupFailed(channel);
+            if (earlyData != null) earlyData.release();
+            return;
+        }
+
+        int earlyBytes = earlyData != null ? earlyData.readableBytes() : 0;
+        ByteBuf buf = beginFrame(this.channel.alloc(), 64 + earlyBytes)
                 .writeByte(CONTROL_INCOMING)
                 .writeLong(id)
                 .writeShort(((InetSocketAddress) channel.localAddress()).getPort());
         writeAddress(buf, (InetSocketAddress) channel.remoteAddress());
-        this.channel.writeAndFlush(buf);
+        buf.writeInt(earlyBytes);
+        if (earlyData != null) {
+            buf.writeBytes(earlyData);
+            earlyData.release();
+            if (channel.hasAttr(ATTR_STATS)) channel.attr(ATTR_STATS).get().transferred(true, earlyBytes);
+        }
+        this.send(endFrame(buf));
 
-        this.waitingChannels.add(channel);
+        //free the slot if the channel goes away before the client picks it up
+        channel.closeFuture().addListener((ChannelFutureListener) f -> this.waitingChannels.remove(id));
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.server.backend;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.loopback.common.udp.UdpLinkHandler;
+import net.daporkchop.loopback.server.frontend.UdpFlow;
+import net.daporkchop.loopback.server.frontend.UdpForwardHandler;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server end of a UDP link, sends datagrams received from the client back to the flows' source addresses.
+ * <p>
+ * Datagrams are collected per forward while a read loop is in progress, and handed to each forward's event loop in one go once it's complete.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ServerUdpLinkHandler extends UdpLinkHandler {
+    @NonNull
+    protected final ServerControlHandler control;
+
+    protected final Map<UdpForwardHandler, List<DatagramPacket>> outgoing = new IdentityHashMap<>();
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (!this.outgoing.isEmpty()) {
+            this.outgoing.forEach(UdpForwardHandler::send);
+            this.outgoing.clear();
+        }
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.outgoing.values().forEach(packets -> packets.forEach(DatagramPacket::release));
+        this.outgoing.clear();
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void flowOpened(long id, int port, InetSocketAddress sender) {
+        throw new IllegalStateException("Client attempted to open a flow!");
+    }
+
+    @Override
+    protected void flowData(long id, ByteBuf datagram) {
+        UdpFlow flow = this.control.udpFlows().get(id);
+        if (flow == null) { //the flow has already expired, or the client didn't get the close record
+            this.batch.close(this.channel.alloc(), id);
+            return;
+        }
+
+        flow.touch();
+        this.outgoing.computeIfAbsent(flow.forward(), forward -> new ArrayList<>()).add(new DatagramPacket(datagram.retain(), flow.sender()));
+    }
+
+    @Override
+    protected void flowClosed(long id) {
+        UdpFlow flow = this.control.udpFlows().get(id);
+        if (flow != null) flow.forward().remoteClosed(flow);
+    }
+}
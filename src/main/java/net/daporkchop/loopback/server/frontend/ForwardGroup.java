@@ -0,0 +1,225 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.server.frontend;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ServerChannel;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.server.Server;
+import net.daporkchop.loopback.server.backend.ServerControlHandler;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * A forwarded tcp port, which may be shared by several clients.
+ * <p>
+ * Every client that adds a forward for the same port joins the same group, and each incoming connection is handed to one of them. By default
+ * that's the one with the fewest active connections relative to its weight, {@code -Dloopback.balance=roundRobin} distributes connections by
+ * weight alone instead.
+ * <p>
+ * Clients are only known to be unhealthy when connections handed to them don't get bound because of the client, which is when the setup
+ * timeout expires or the client gives up on the data channels it opened for them. Connections which are closed by their own end before
+ * that count neither way. A client which fails {@code BALANCE_MAX_FAILS} connections in a row without binding any is skipped for
+ * {@code -Dloopback.balance.failTimeout} milliseconds, unless no other clients are left.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class ForwardGroup {
+    protected final Server        server;
+    protected final int           port;
+    protected final ForwardStats  stats;
+    protected final ChannelFuture bindFuture;
+    protected final ServerChannel channel;
+
+    //copy-on-write, only modified while holding the lock
+    private volatile Member[] members = new Member[0];
+    private          int      next; //index to start searching at, so that ties are broken in turn
+
+    public ForwardGroup(@NonNull Server server, int port) {
+        this.server = server;
+        this.port = port;
+        this.stats = server.metrics().forward(port, false, null);
+        this.bindFuture = new ServerBootstrap().group(BOSS_GROUP, GROUP)
+                .channelFactory(SERVER_CHANNEL_FACTORY)
+                .childHandler(new FrontendChannelInitializer(this))
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, RECV_BUF_ALLOCATOR)
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childAttr(ATTR_LOG, DEFAULT_CHANNEL_LOGGER)
+                .bind(port)
+                .addListener((ChannelFutureListener) f -> {
+                    if (f.isSuccess()) {
+                        Logging.logger.success("Forwarding connections from port %d!", port);
+                    } else {
+                        Logging.logger.error("Failed to bind to %d!", port);
+                    }
+                });
+        this.channel = (ServerChannel) this.bindFuture.channel();
+        this.channel.closeFuture().addListener(f -> server.metrics().remove(this.stats));
+    }
+
+    /**
+     * @return whether or not the group's port is either bound or still being bound
+     */
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    public int size() {
+        return this.members.length;
+    }
+
+    /**
+     * Adds a client to this group.
+     *
+     * @param weight the client's share of connections, relative to the other clients
+     * @return whether or not the client was added, it may only be added once
+     */
+    public synchronized boolean join(@NonNull ServerControlHandler control, int weight) {
+        Member[] members = this.members;
+        for (Member member : members) {
+            if (member.control == control) return false;
+        }
+
+        members = Arrays.copyOf(members, members.length + 1);
+        members[members.length - 1] = new Member(control, Math.max(weight, 1));
+        this.members = members;
+        return true;
+    }
+
+    /**
+     * Removes a client from this group.
+     *
+     * @return whether or not the client was in this group
+     */
+    public synchronized boolean leave(@NonNull ServerControlHandler control) {
+        Member[] members = this.members;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].control == control) {
+                Member[] newMembers = new Member[members.length - 1];
+                System.arraycopy(members, 0, newMembers, 0, i);
+                System.arraycopy(members, i + 1, newMembers, i, newMembers.length - i);
+                this.members = newMembers;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands a new frontend connection to one of the clients in this group.
+     *
+     * @param earlyData see {@link ServerControlHandler#incomingChannel(Channel, ByteBuf)}
+     * @return the client that the connection was handed to, or {@code null} if there are none and the connection was closed
+     */
+    public Member incomingChannel(@NonNull Channel channel, ByteBuf earlyData) {
+        Member member = this.select();
+        if (member == null) {
+            channel.attr(ATTR_LOG).get().error("No clients available for port %d, dropping %s", this.port, channel.remoteAddress());
+            channel.close();
+            if (earlyData != null) earlyData.release();
+            return null;
+        }
+
+        member.active.incrementAndGet();
+        channel.closeFuture().addListener(f -> member.active.decrementAndGet());
+        member.control.incomingChannel(channel, earlyData);
+        return member;
+    }
+
+    protected synchronized Member select() {
+        long now = System.nanoTime();
+        Member member = this.select(now, false);
+        return member != null ? member : this.select(now, true);
+    }
+
+    private Member select(long now, boolean includeEjected) {
+        Member[] members = this.members;
+        int start = this.next++;
+        Member best = null;
+        int totalWeight = 0;
+        for (int i = 0; i < members.length; i++) {
+            Member member = members[Integer.remainderUnsigned(start + i, members.length)];
+            if (!member.control.channel().isActive() || (!includeEjected && member.ejectedUntil - now > 0L)) continue;
+
+            if (BALANCE_ROUND_ROBIN) {
+                //smooth weighted round robin, as used by nginx: each member's counter grows by its weight on every pick, and the chosen one's
+                // counter is lowered by the total weight so that picks are spread out rather than done in bursts
+                member.currentWeight += member.weight;
+                totalWeight += member.weight;
+                if (best == null || member.currentWeight > best.currentWeight) best = member;
+            } else if (best == null || (long) member.active.get() * best.weight < (long) best.active.get() * member.weight) {
+                best = member;
+            }
+        }
+
+        if (best != null) best.currentWeight -= totalWeight;
+        return best;
+    }
+
+    /**
+     * A single client in a {@link ForwardGroup}.
+     *
+     * @author DaPorkchop_
+     */
+    @Getter
+    public final class Member {
+        protected final ServerControlHandler control;
+        protected final int                  weight;
+        protected final AtomicInteger        active = new AtomicInteger();
+
+        private          int  currentWeight; //only accessed while holding the group's lock
+        //not updated atomically, as they're only used to decide which client should be tried first
+        private volatile int  failures;
+        private volatile long ejectedUntil = System.nanoTime();
+
+        private Member(@NonNull ServerControlHandler control, int weight) {
+            this.control = control;
+            this.weight = weight;
+        }
+
+        /**
+         * Records whether a connection which was handed to this client got bound, or wasn't because of the client.
+         */
+        public void setupComplete(boolean success) {
+            if (success) {
+                this.failures = 0;
+            } else if (++this.failures >= BALANCE_MAX_FAILS) {
+                this.failures = 0;
+                this.ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BALANCE_FAIL_TIMEOUT);
+                Logging.logger.warn("Client %d failed to set up %d connections on port %d in a row, skipping it for %d ms",
+                        this.control.id(), BALANCE_MAX_FAILS, ForwardGroup.this.port, BALANCE_FAIL_TIMEOUT);
+            }
+        }
+    }
+}
@@ -19,23 +19,24 @@ import io.netty.channel.socket.SocketChannel;
 import lombok.NonNull;
 import net.daporkchop.loopback.common.CommonHandler;
 import net.daporkchop.loopback.server.ServerChannelInitializer;
-import net.daporkchop.loopback.server.ServerCommonHandler;
-import net.daporkchop.loopback.server.backend.ServerControlHandler;
-
-import java.util.concurrent.atomic.AtomicLong;
+import net.daporkchop.loopback.util.IdleTimeout;
+import net.daporkchop.loopback.util.Timeouts;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
 /**
  * @author DaPorkchop_
  */
-public final class FrontendChannelInitializer extends ServerChannelInitializer {
-    protected final FrontendTransportHandler transport;
+public final class FrontendChannelInitializer extends ServerChannelInitializer<SocketChannel> {
+    protected final ForwardGroup group;
+
+    //number of connections in a row which didn't send anything before the wait for early data was over. not updated atomically, as it's only a hint
+    protected volatile int earlyDataMisses;
 
-    public FrontendChannelInitializer(@NonNull ServerControlHandler control) {
-        super(control.server());
+    public FrontendChannelInitializer(@NonNull ForwardGroup group) {
+        super(group.server());
 
-        this.transport = new FrontendTransportHandler(control);
+        this.group = group;
     }
 
     @Override
@@ -43,9 +44,17 @@ public final class FrontendChannelInitializer extends ServerChannelInitializer {
         super.initChannel(channel);
 
         channel.pipeline()
-                .addLast("handle", this.transport)
-                .addLast("common", ServerCommonHandler.INSTANCE);
-
-        channel.attr(ATTR_IDLE).set(new AtomicLong(System.currentTimeMillis()));
+                .addLast("handle", new FrontendTransportHandler(this))
+                .addLast("common", CommonHandler.INSTANCE);
+
+        if (Timeouts.IDLE_TIMEOUT > 0L) channel.attr(ATTR_IDLE).set(new IdleTimeout(channel));
+
+        channel.attr(ATTR_STATS).set(this.group.stats());
+        channel.attr(ATTR_SETUP_START).set(System.nanoTime());
+        this.group.stats().connectionOpened();
+        channel.closeFuture().addListener(f -> {
+            this.group.stats().connectionClosed();
+            if (!channel.hasAttr(ATTR_BOUND)) this.group.stats().setupFailed();
+        });
     }
 }
@@ -15,35 +15,139 @@
 
 package net.daporkchop.loopback.server.frontend;
 
-import io.netty.channel.ChannelHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import net.daporkchop.loopback.server.backend.ServerControlHandler;
+import net.daporkchop.lib.common.util.PorkUtil;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static net.daporkchop.loopback.util.Constants.*;
 
 /**
+ * Notifies the client of a new frontend connection, and holds on to anything it sends until it's bound.
+ * <p>
+ * Before notifying the client, the connection is read from once and given up to {@code EARLY_DATA_WAIT} milliseconds to send something.
+ * Whatever is read in that time (up to {@code EARLY_DATA_MAX} bytes) is sent along with the notification, so the client can write it to the
+ * target while the data channel is still being set up. Anything past that is forwarded normally once the "handle" handler is replaced.
+ * <p>
+ * Protocols where the server speaks first would otherwise pay the whole wait on every connection, so a forward stops waiting once a number of
+ * connections in a row didn't send anything in time, and only waits for the occasional probe connection after that.
+ *
  * @author DaPorkchop_
  */
 @RequiredArgsConstructor
-@ChannelHandler.Sharable
 public final class FrontendTransportHandler extends ChannelInboundHandlerAdapter {
     @NonNull
-    protected final ServerControlHandler handler;
+    protected final FrontendChannelInitializer initializer;
+
+    protected ForwardGroup.Member member; //the client which the connection was handed to
+    protected ByteBuf             pending;
+    protected ScheduledFuture<?>  notifyTask;
+    protected boolean             notified;
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        this.handler.incomingChannel(ctx.channel());
+        if (EARLY_DATA_MAX > 0 && EARLY_DATA_WAIT > 0L
+            && (this.initializer.earlyDataMisses < EARLY_DATA_MISS_LIMIT || ThreadLocalRandom.current().nextInt(EARLY_DATA_PROBE_RATIO) == 0)) {
+            ctx.read();
+            this.notifyTask = ctx.executor().schedule(() -> this.notifyClient(ctx), EARLY_DATA_WAIT, TimeUnit.MILLISECONDS);
+        } else {
+            this.notified = true;
+            this.member = this.initializer.group.incomingChannel(ctx.channel(), null);
+        }
 
         super.channelActive(ctx);
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (!ctx.channel().hasAttr(ATTR_PAIR)) throw new IllegalStateException();
+        if (!(msg instanceof ByteBuf)) {
+            ReferenceCountUtil.release(msg);
+            throw new IllegalArgumentException(PorkUtil.className(msg));
+        }
+
+        if (this.pending == null) {
+            this.pending = (ByteBuf) msg;
+        } else {
+            CompositeByteBuf composite = this.pending instanceof CompositeByteBuf
+                    ? (CompositeByteBuf) this.pending
+                    : ctx.alloc().compositeBuffer().addComponent(true, this.pending);
+            this.pending = composite.addComponent(true, (ByteBuf) msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (!this.notified) this.notifyClient(ctx);
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.cancelNotify();
+        if (this.pending != null) {
+            this.pending.release();
+            this.pending = null;
+        }
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        this.cancelNotify();
+
+        //this handler is replaced once the connection is bound, and removed without being bound if it's closed before that. a connection which
+        // was closed by its own end before the client got to it says nothing about the client, so it isn't counted either way
+        if (this.member != null) {
+            if (ctx.channel().hasAttr(ATTR_BOUND)) {
+                this.member.setupComplete(true);
+            } else if (ctx.channel().hasAttr(ATTR_SETUP_FAIL)) {
+                this.member.setupComplete(false);
+            }
+        }
+
+        //the handler that replaced this one gets everything that was read but not sent as early data
+        ByteBuf pending = this.pending;
+        if (pending != null) {
+            this.pending = null;
+            ctx.fireChannelRead(pending);
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    protected void notifyClient(@NonNull ChannelHandlerContext ctx) {
+        if (this.notified) return;
+        this.notified = true;
+        this.cancelNotify();
+
+        ByteBuf earlyData = null;
+        if (this.pending != null) {
+            earlyData = this.pending.readRetainedSlice(Math.min(this.pending.readableBytes(), EARLY_DATA_MAX));
+            if (!this.pending.isReadable()) {
+                this.pending.release();
+                this.pending = null;
+            }
+            this.initializer.earlyDataMisses = 0;
+        } else if (this.initializer.earlyDataMisses < EARLY_DATA_MISS_LIMIT) {
+            this.initializer.earlyDataMisses++;
+        }
+
+        this.member = this.initializer.group.incomingChannel(ctx.channel(), earlyData);
+    }
 
-        ctx.channel().attr(ATTR_PAIR).get().writeAndFlush(msg).addListener(DO_READ_HANDLER);
+    protected void cancelNotify() {
+        if (this.notifyTask != null) {
+            this.notifyTask.cancel(false);
+            this.notifyTask = null;
+        }
     }
 }
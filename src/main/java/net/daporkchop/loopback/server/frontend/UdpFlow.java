@@ -0,0 +1,66 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.server.frontend;
+
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.loopback.util.Timeouts;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The datagrams exchanged between a single source address and the target of a UDP forward.
+ * <p>
+ * Like {@link net.daporkchop.loopback.util.IdleTimeout}, marking a flow as active only writes the coarse clock's value to a field, and the
+ * timeout re-arms itself for the remaining time whenever it fires early. Once the flow has been idle for {@link Timeouts#UDP_IDLE_TIMEOUT}
+ * milliseconds, it's closed on the forward's event loop.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class UdpFlow implements TimerTask {
+    @NonNull
+    protected final UdpForwardHandler forward;
+    @NonNull
+    protected final InetSocketAddress sender;
+
+    protected long id; //assigned by the forward before the flow's first record is sent
+
+    protected volatile long    lastActivity = Timeouts.now();
+    protected volatile boolean closed;
+
+    public void touch() {
+        long now = Timeouts.now();
+        if (this.lastActivity != now) this.lastActivity = now;
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (this.closed) return;
+
+        long remaining = this.lastActivity + Timeouts.UDP_IDLE_TIMEOUT - Timeouts.now();
+        if (remaining > 0L) {
+            timeout.timer().newTimeout(this, remaining, TimeUnit.MILLISECONDS);
+        } else {
+            this.forward.channel().eventLoop().execute(() -> this.forward.expire(this));
+        }
+    }
+}
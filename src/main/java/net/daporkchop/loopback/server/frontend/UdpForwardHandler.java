@@ -0,0 +1,183 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.server.frontend;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
+import net.daporkchop.loopback.common.udp.UdpBatch;
+import net.daporkchop.loopback.server.backend.ServerControlHandler;
+import net.daporkchop.loopback.util.Timeouts;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Handles the datagram channel bound for a UDP forward.
+ * <p>
+ * Every source address which sends a datagram to the forwarded port gets its own {@link UdpFlow}. All of the datagrams received in a single
+ * read loop are batched together and sent over the control channel's UDP link once the read loop is complete. Datagrams are dropped while
+ * there is no link, or while it isn't writable.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class UdpForwardHandler extends ChannelInboundHandlerAdapter {
+    @NonNull
+    protected final ServerControlHandler control;
+    @NonNull
+    protected final ForwardStats         stats;
+    protected final int                  port;
+
+    protected final Map<InetSocketAddress, UdpFlow> flows = new HashMap<>();
+    protected final UdpBatch                        batch = new UdpBatch();
+
+    protected Channel channel;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.channel = ctx.channel();
+
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (!(msg instanceof DatagramPacket)) throw new IllegalArgumentException(PorkUtil.className(msg));
+
+            DatagramPacket packet = (DatagramPacket) msg;
+            Channel link = this.control.udpLink();
+            if (link == null || !link.isWritable()) return;
+
+            UdpFlow flow = this.flows.get(packet.sender());
+            if (flow == null && (flow = this.openFlow(packet.sender())) == null) return;
+
+            flow.touch();
+            this.stats.transferred(true, packet.content().readableBytes());
+            this.batch.data(ctx.alloc(), flow.id, packet.content());
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        this.batch.flush(this.control.udpLink());
+
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.flows.values().forEach(flow -> this.closeFlow(flow, true));
+        this.flows.clear();
+        this.batch.flush(this.control.udpLink());
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        //errors caused by a single datagram don't affect any of the other flows, so the channel is kept open
+        ctx.channel().attr(ATTR_LOG).get().debug("%s", cause);
+    }
+
+    protected UdpFlow openFlow(@NonNull InetSocketAddress sender) {
+        UdpFlow flow = new UdpFlow(this, sender);
+        long id = this.control.udpFlows().add(flow);
+        if (id == -1L) {
+            this.channel.attr(ATTR_LOG).get().debug("Too many UDP flows, dropping datagram from %s", sender);
+            return null;
+        }
+
+        flow.id = id;
+        this.flows.put(sender, flow);
+        this.batch.open(this.channel.alloc(), id, this.port, sender);
+        this.stats.connectionOpened();
+        Timeouts.TIMER.newTimeout(flow, Timeouts.UDP_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        return flow;
+    }
+
+    protected void closeFlow(@NonNull UdpFlow flow, boolean notify) {
+        flow.closed = true;
+        this.control.udpFlows().remove(flow.id);
+        if (notify) this.batch.close(this.channel.alloc(), flow.id);
+        this.stats.connectionClosed();
+    }
+
+    /**
+     * Closes a flow which has been idle for too long.
+     * <p>
+     * Must be called on this forward's event loop.
+     */
+    protected void expire(@NonNull UdpFlow flow) {
+        if (flow.closed) return;
+
+        this.flows.remove(flow.sender());
+        this.closeFlow(flow, true);
+        this.batch.flush(this.control.udpLink());
+    }
+
+    /**
+     * Closes a flow which has been closed by the client.
+     */
+    public void remoteClosed(@NonNull UdpFlow flow) {
+        if (!this.channel.eventLoop().inEventLoop()) {
+            this.channel.eventLoop().execute(() -> this.remoteClosed(flow));
+            return;
+        }
+
+        if (!flow.closed) {
+            this.flows.remove(flow.sender());
+            this.closeFlow(flow, false);
+        }
+    }
+
+    /**
+     * Sends datagrams received over the link, flushing them all at once so that they can be written using a single syscall.
+     */
+    public void send(@NonNull List<DatagramPacket> packets) {
+        if (!this.channel.eventLoop().inEventLoop()) {
+            this.channel.eventLoop().execute(() -> this.send(packets));
+            return;
+        }
+
+        for (int i = 0, size = packets.size(); i < size; i++) {
+            DatagramPacket packet = packets.get(i);
+            if (this.channel.isWritable()) {
+                this.stats.transferred(false, packet.content().readableBytes());
+                this.channel.write(packet, this.channel.voidPromise());
+            } else { //the socket can't keep up, there's no point in buffering datagrams
+                packet.release();
+            }
+        }
+        this.channel.flush();
+    }
+}
@@ -20,6 +20,8 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import net.daporkchop.loopback.common.compression.Compression;
 
 /**
  * @author DaPorkchop_
@@ -32,6 +34,21 @@ public final class Addr {
     protected final String host;
     protected final int port;
 
+    //set once a connection to an IPv4 address has won the race against IPv6, so that IPv4 is tried first next time
+    @EqualsAndHashCode.Exclude
+    @Setter
+    protected volatile boolean preferIpv4;
+
+    //the compression used for connections to this address, only set for the targets of tcp forwards
+    @EqualsAndHashCode.Exclude
+    @Setter
+    protected volatile Compression compression = Compression.NONE;
+
+    //the number of data channels each connection to this address is striped across, only set for the targets of tcp forwards
+    @EqualsAndHashCode.Exclude
+    @Setter
+    protected volatile int stripes = 1;
+
     @Override
     public String toString() {
         return String.format("%s:%d", this.host, this.port);
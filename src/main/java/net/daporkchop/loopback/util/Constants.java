@@ -16,78 +16,399 @@
 package net.daporkchop.loopback.util;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFactory;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.RecvByteBufAllocator;
 import io.netty.channel.ServerChannel;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.epoll.EpollSocketChannel;
-import io.netty.channel.group.ChannelMatcher;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.incubator.channel.uring.IOUringSocketChannel;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import net.daporkchop.lib.logging.Logger;
 import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.common.PlaintextHandshakeHandler;
+import net.daporkchop.loopback.common.RelayHandler;
+import net.daporkchop.loopback.common.compression.Compression;
+import net.daporkchop.loopback.common.metrics.ForwardStats;
 
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author DaPorkchop_
  */
 @UtilityClass
 public class Constants {
-    public final long SERVER_CONNECTION_TIMEOUT = 10L;
-    public final long CLIENT_RECONNECT_DELAY    = 5L;
+    public final long CLIENT_RECONNECT_DELAY = 5L;
 
-    public final EventLoopGroup GROUP = Epoll.isAvailable()
-            ? new EpollEventLoopGroup(Runtime.getRuntime().availableProcessors())
-            : new NioEventLoopGroup(Runtime.getRuntime().availableProcessors());
+    public final WriteBufferWaterMark WRITE_BUFFER_WATER_MARK = new WriteBufferWaterMark(
+            Integer.getInteger("loopback.writeBuffer.low", 256 << 10),
+            Integer.getInteger("loopback.writeBuffer.high", 1 << 20));
 
-    public final ChannelFactory<Channel>       CLIENT_CHANNEL_FACTORY = Epoll.isAvailable() ? EpollSocketChannel::new : NioSocketChannel::new;
-    public final ChannelFactory<ServerChannel> SERVER_CHANNEL_FACTORY = Epoll.isAvailable() ? EpollServerSocketChannel::new : NioServerSocketChannel::new;
+    //io_uring, epoll or nio, falling back to the next one if the selected transport isn't supported. auto prefers epoll, unless links are carried
+    // over SCTP which only nio supports
+    public final Transport            TRANSPORT          = Transport.select(System.getProperty("loopback.transport", Boolean.getBoolean("loopback.mux.sctp") ? "nio" : "auto"));
+    public final RecvByteBufAllocator RECV_BUF_ALLOCATOR = TRANSPORT.recvByteBufAllocator();
 
-    public final AttributeKey<Channel>    ATTR_PAIR  = AttributeKey.newInstance("loopback_pair");
-    public final AttributeKey<Long>       ATTR_ID    = AttributeKey.newInstance("loopback_id");
-    public final AttributeKey<Logger>     ATTR_LOG   = AttributeKey.newInstance("loopback_log");
-    public final AttributeKey<Boolean>    ATTR_BOUND = AttributeKey.newInstance("loopback_bound");
-    public final AttributeKey<AtomicLong> ATTR_IDLE  = AttributeKey.newInstance("loopback_idle");
+    //listeners accept on the boss group, control channels live on their own group so that they stay responsive while the I/O group is busy,
+    // and everything else (data channels, links, frontends and targets) is handled by the I/O group
+    public final EventLoopGroup BOSS_GROUP    = eventLoopGroup("boss", Integer.getInteger("loopback.threads.boss", 1));
+    public final EventLoopGroup CONTROL_GROUP = eventLoopGroup("control", Integer.getInteger("loopback.threads.control", 1));
+    public final EventLoopGroup GROUP         = eventLoopGroup("io", Integer.getInteger("loopback.threads.io", Runtime.getRuntime().availableProcessors()));
 
-    public final ChannelFutureListener DO_READ_HANDLER = future -> future.channel().attr(ATTR_PAIR).get().read();
-    public final ChannelMatcher        TIMEOUT_MATCHER = channel -> channel.hasAttr(ATTR_IDLE) && channel.attr(ATTR_IDLE).get().get() >= System.currentTimeMillis() + SERVER_CONNECTION_TIMEOUT * 1000L;
+    //plaintext mode skips TLS entirely, and should only be used when both the client and the server are in a trusted network
+    public final boolean PLAINTEXT = Boolean.getBoolean("loopback.plaintext");
+    public final boolean SPLICE    = PLAINTEXT && TRANSPORT == Transport.EPOLL && !Boolean.getBoolean("loopback.splice.disable");
+
+    public final ChannelFactory<Channel>         CLIENT_CHANNEL_FACTORY   = TRANSPORT.socketChannelFactory();
+    public final ChannelFactory<ServerChannel>   SERVER_CHANNEL_FACTORY   = TRANSPORT.serverSocketChannelFactory();
+    public final ChannelFactory<DatagramChannel> DATAGRAM_CHANNEL_FACTORY = TRANSPORT.datagramChannelFactory();
+
+    //hostnames are resolved without blocking on the event loop of the channel that is connecting. all event loops share the same cache, which
+    // respects the records' TTLs (clamped to the given range) and also remembers failed lookups for a while
+    public final int DNS_MIN_TTL      = Integer.getInteger("loopback.dns.minTtl", 0); //seconds
+    public final int DNS_MAX_TTL      = Integer.getInteger("loopback.dns.maxTtl", Integer.MAX_VALUE); //seconds
+    public final int DNS_NEGATIVE_TTL = Integer.getInteger("loopback.dns.negativeTtl", 5); //seconds
+
+    public final AddressResolverGroup<InetSocketAddress> RESOLVER = new DnsAddressResolverGroup(new DnsNameResolverBuilder()
+            .datagramChannelFactory(DATAGRAM_CHANNEL_FACTORY)
+            .resolveCache(new DefaultDnsCache(DNS_MIN_TTL, DNS_MAX_TTL, DNS_NEGATIVE_TTL)));
+
+    public final AttributeKey<Channel>     ATTR_PAIR  = AttributeKey.newInstance("loopback_pair");
+    public final AttributeKey<Long>        ATTR_ID    = AttributeKey.newInstance("loopback_id");
+    public final AttributeKey<Logger>      ATTR_LOG   = AttributeKey.newInstance("loopback_log");
+    public final AttributeKey<Boolean>     ATTR_BOUND = AttributeKey.newInstance("loopback_bound");
+    public final AttributeKey<IdleTimeout> ATTR_IDLE  = AttributeKey.newInstance("loopback_idle");
+    public final AttributeKey<Integer>     ATTR_LINK  = AttributeKey.newInstance("loopback_link"); //the channel type of a link opened by the client
+
+    public final AttributeKey<ForwardStats> ATTR_STATS       = AttributeKey.newInstance("loopback_stats");
+    public final AttributeKey<Long>         ATTR_SETUP_START = AttributeKey.newInstance("loopback_setup_start"); //System.nanoTime() when setup started
+    public final AttributeKey<Boolean>      ATTR_SETUP_FAIL  = AttributeKey.newInstance("loopback_setup_fail"); //set if the other end failed to bind it
+
+    public final ChannelFutureListener SPLICE_CLOSE_HANDLER = future -> {
+        if (!future.isSuccess()) future.channel().close();
+    };
 
     public final Logger DEFAULT_CHANNEL_LOGGER = Logging.logger.channel("Unknown Channel");
 
     public final int PASSWORD_BYTES = 256 >>> 3; // sha256 is 256 bits long
 
-    public final int CONTROL_HANDSHAKE = 0;
-    public final int CONTROL_ADD       = 1;
-    public final int CONTROL_REMOVE    = 2;
-    public final int CONTROL_RESULT    = 3;
-    public final int CONTROL_INCOMING  = 4;
+    //every message on a backend channel is prefixed with its length until the channel is bound, and control channels and links stay framed
+    public final int PROTOCOL_VERSION     = 7;
+    public final int IDENTIFICATION_BYTES = 1 + PASSWORD_BYTES + 1 + 8; //version, password, channel type, control channel ID
+    public final int CHANNEL_ID_BYTES     = 8 + 1 + 1 + 1; //sent on a data channel before it's bound: connection ID, compression, stripe index, stripe count
+    public final int CONTROL_MAX_FRAME    = 1 << 16;
+
+    //a control frame contains one or more commands
+    public final int CONTROL_HANDSHAKE  = 0;
+    public final int CONTROL_ADD        = 1;
+    public final int CONTROL_REMOVE     = 2;
+    public final int CONTROL_RESULT     = 3;
+    public final int CONTROL_INCOMING   = 4;
+    public final int CONTROL_ADD_UDP    = 5;
+    public final int CONTROL_REMOVE_UDP = 6;
+    public final int CONTROL_REFUSE     = 7; //sent by the client for an incoming connection which it couldn't set up
+
+    //flags in a CONTROL_RESULT command
+    public final int RESULT_REMOVE = 1;
+    public final int RESULT_UDP    = 2;
+
+    public final int CHANNEL_CONTROL  = 0;
+    public final int CHANNEL_MUX_LINK = 1;
+    public final int CHANNEL_DATA     = 2;
+    public final int CHANNEL_UDP_LINK = 3;
+
+    public final int MUX_LINKS        = Integer.getInteger("loopback.mux.links", 0); //number of multiplexed links opened by the client, 0 to disable
+    public final int MUX_WINDOW       = Integer.getInteger("loopback.mux.window", 1 << 20); //per-stream flow control window, in bytes
+    public final int MUX_MAX_FRAME    = 1 << 20;
+    public final int MUX_HEADER_BYTES = 4 + 1 + 8; //length, type, stream ID
+
+    //links may be SCTP associations instead of TCP connections, each stream's frames are then sent on one of the association's SCTP streams so
+    // that a lost packet only holds up the streams that share it. only supported by the nio transport, and only in plaintext mode
+    public final boolean MUX_SCTP         = Boolean.getBoolean("loopback.mux.sctp");
+    public final int     MUX_SCTP_STREAMS = Integer.getInteger("loopback.mux.sctpStreams", 256); //SCTP streams requested for each association
+    public final int     MUX_SCTP_HELD    = 2 * MUX_MAX_FRAME; //bytes the server holds back while waiting for the identification message
+
+    public final int MUX_FRAME_OPEN   = 0;
+    public final int MUX_FRAME_DATA   = 1;
+    public final int MUX_FRAME_CLOSE  = 2;
+    public final int MUX_FRAME_WINDOW = 3;
+
+    //links may also be QUIC connections, on which every incoming connection gets a stream of its own. streams are authenticated just like data
+    // channels, but can be opened without a handshake and are flow controlled and retransmitted independently of each other. the control
+    // channel stays on TCP, so QUIC's connection migration doesn't help: if the client's address changes, the control channel is lost and every
+    // link is closed and reconnected along with it
+    public final boolean QUIC              = Boolean.getBoolean("loopback.quic");
+    public final int     QUIC_LINKS        = Integer.getInteger("loopback.quic.links", 1); //number of QUIC connections opened by the client
+    public final long    QUIC_IDLE_TIMEOUT = Long.getLong("loopback.quic.idleTimeout", 300_000L); //milliseconds, links are re-opened after this
+    public final long    QUIC_WINDOW       = Long.getLong("loopback.quic.window", 1L << 20); //per-stream flow control window, in bytes
+    public final long    QUIC_MAX_DATA     = Long.getLong("loopback.quic.maxData", 64L << 20); //per-connection flow control window, in bytes
+    public final long    QUIC_MAX_STREAMS  = Long.getLong("loopback.quic.maxStreams", 1L << 16); //concurrent streams per connection
+
+    //several clients may add a forward for the same port, in which case incoming connections are distributed between them (see ForwardGroup)
+    public final boolean BALANCE_ROUND_ROBIN  = "roundRobin".equalsIgnoreCase(System.getProperty("loopback.balance", "leastConn"));
+    public final int     BALANCE_WEIGHT       = Math.max(Math.min(Integer.getInteger("loopback.balance.weight", 1), 255), 1); //sent by the client
+    public final int     BALANCE_MAX_FAILS    = 3; //connections in a row which a client has to fail to set up before it's skipped
+    public final long    BALANCE_FAIL_TIMEOUT = Long.getLong("loopback.balance.failTimeout", 10_000L); //milliseconds to skip a failing client for
+
+    //data channels of a forward may be compressed, using an algorithm which is picked separately for each forward (see Compression). blocks are
+    // only compressed as long as they actually get smaller, so encrypted or already compressed traffic doesn't waste much time
+    public final Compression COMPRESSION            = Compression.parse(System.getProperty("loopback.compression", "none")); //default for new forwards
+    public final int         COMPRESSION_ZSTD_LEVEL = Integer.getInteger("loopback.compression.zstdLevel", 3);
+    public final long        COMPRESSION_SKIP_MAX   = Long.getLong("loopback.compression.skipMax", 16L << 20); //max bytes sent without compressing
+
+    //a forward may stripe each connection across several data channels, so that a single bulk transfer isn't limited to what one tcp connection
+    // achieves on a path with a high bandwidth-delay product. chunks are prefixed with a sequence number and put back in order by the other end
+    public final int STRIPE_MAX          = 64; //most data channels a single connection may be striped across
+    public final int STRIPE_CHUNK        = 1 << 16; //longest chunk sent on a single data channel
+    public final int STRIPE_HEADER_BYTES = 4 + 8; //length, sequence number
+    public final int STRIPE_MAX_FRAME    = STRIPE_HEADER_BYTES + STRIPE_CHUNK;
+    public final int STRIPE_REORDER_MAX  = Integer.getInteger("loopback.stripe.reorderMax", 8 << 20); //bytes buffered out of order per connection
 
-    public final int CLIENT_READY_SOCKETS = 3;
+    //datagrams are carried over a single link per client, each frame on it contains one or more records
+    public final int UDP_MAX_DATAGRAM = Math.min(Integer.getInteger("loopback.udp.maxDatagram", 4096), 65507); //longer datagrams are truncated
+    public final int UDP_READ_BATCH   = Integer.getInteger("loopback.udp.batch", 16); //datagrams read by a single syscall, where supported
+    public final int UDP_BUFFER       = Integer.getInteger("loopback.udp.buffer", 4 << 20); //socket buffer size, bursts beyond this are dropped by the kernel
+    public final int UDP_MAX_FRAME    = 1 << 17;
+    public final int UDP_HEADER_BYTES = 1 + 8; //type, flow ID
+    public final int UDP_MAX_PENDING  = 64; //datagrams queued for a flow while its target is being connected to
 
+    public final int UDP_RECORD_OPEN  = 0;
+    public final int UDP_RECORD_DATA  = 1;
+    public final int UDP_RECORD_CLOSE = 2;
+
+    //the first bytes sent by whoever connects to a forward are included in the incoming connection notification, so that the client can write
+    // them to the target before the data channel is bound. the wait is scheduled on the event loop, as the timing wheel is far too coarse
+    public final int  EARLY_DATA_MAX         = Math.min(Integer.getInteger("loopback.earlyData.max", 16 << 10), CONTROL_MAX_FRAME - 1024); //0 to disable
+    public final long EARLY_DATA_WAIT        = Long.getLong("loopback.earlyData.wait", 2L); //milliseconds to wait for the first bytes, 0 to disable
+    public final int  EARLY_DATA_MISS_LIMIT  = 8; //a forward stops waiting after this many connections in a row didn't send anything in time
+    public final int  EARLY_DATA_PROBE_RATIO = 64; //one in this many connections still waits, in case the forward's clients start sending first
+
+    public final int    CLIENT_READY_SOCKETS         = 3; //minimum number of data channels to keep ready
+    public final int    CLIENT_READY_SOCKETS_MAX     = 256;
+    public final long   CLIENT_READY_UPDATE_INTERVAL = 500L; //milliseconds
+    public final double CLIENT_READY_RATE_WINDOW     = 5.0d; //seconds
+    public final double CLIENT_READY_HEADROOM        = 2.0d;
+
+    //targets which resolve to several addresses are raced as described in RFC 8305, starting the next attempt as soon as the previous one fails or
+    // once it hasn't succeeded within this delay
+    public final long CLIENT_CONNECT_ATTEMPT_DELAY = Long.getLong("loopback.connect.attemptDelay", 250L); //milliseconds
+
+    public final int    METRICS_PORT = Integer.getInteger("loopback.metrics.port", 0); //port to serve Prometheus metrics on, 0 to disable
+    public final String METRICS_HOST = System.getProperty("loopback.metrics.host", "127.0.0.1");
+
+    public final int SERVER_MAX_CONTROL_CHANNELS = Integer.getInteger("loopback.server.maxControlChannels", 1 << 16);
+    public final int SERVER_MAX_WAITING_CHANNELS = Integer.getInteger("loopback.server.maxWaitingChannels", 1 << 20); //per control channel
+    public final int SERVER_MAX_UDP_FLOWS        = Integer.getInteger("loopback.server.maxUdpFlows", 1 << 16); //per control channel
+
+    /**
+     * Binds two channels together, so that everything read from one of them is written to the other.
+     * <p>
+     * If the channels are on different event loops, {@code incoming} is moved onto {@code backend}'s event loop so that relaying data never has
+     * to cross threads, and {@code backend} doesn't read anything until the move is complete.
+     */
     public void bindChannels(@NonNull Channel backend, @NonNull Channel incoming) {
-        synchronized (backend) {
-            synchronized (incoming) {
-                backend.attr(ATTR_BOUND).set(Boolean.TRUE);
-                incoming.attr(ATTR_BOUND).set(Boolean.TRUE);
-                backend.attr(ATTR_PAIR).set(incoming);
-                incoming.attr(ATTR_PAIR).set(backend);
-                backend.read();
-                incoming.read();
+        boolean move = backend.eventLoop() != incoming.eventLoop();
+
+        backend.attr(ATTR_BOUND).set(Boolean.TRUE);
+        incoming.attr(ATTR_BOUND).set(Boolean.TRUE);
+        backend.attr(ATTR_PAIR).set(incoming);
+        incoming.attr(ATTR_PAIR).set(backend);
+        RelayHandler.relay(backend, incoming);
+        setupComplete(backend);
+        setupComplete(incoming);
+
+        //from now on, each channel only stops reading while its pair's outbound buffer is above the high water mark
+        backend.config().setAutoRead(!move && incoming.isWritable());
+        incoming.config().setAutoRead(backend.isWritable());
+
+        //everything after this point is raw data, any of which has already been read will be forwarded by the relay handler
+        removeFrameDecoder(backend);
+        removeFrameDecoder(incoming);
+
+        if (move) {
+            moveToEventLoop(incoming, backend.eventLoop()).addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    //anything that couldn't be written before the move would otherwise have to wait until the next flush
+                    incoming.flush();
+                    backend.config().setAutoRead(incoming.isWritable());
+                    bindComplete(backend, incoming);
+                } else {
+                    incoming.close();
+                    backend.close();
+                }
+            });
+        } else {
+            bindComplete(backend, incoming);
+        }
+    }
+
+    private void bindComplete(@NonNull Channel backend, @NonNull Channel incoming) {
+        //compressed channels can't be spliced, as everything sent over them has to pass through the pipeline
+        if (SPLICE && backend instanceof AbstractEpollStreamChannel && incoming instanceof AbstractEpollStreamChannel
+            && backend.pipeline().get("compress") == null) {
+            spliceChannels((AbstractEpollStreamChannel) backend, (AbstractEpollStreamChannel) incoming);
+        }
+    }
+
+    /**
+     * Moves a channel onto another event loop.
+     * <p>
+     * Nothing should be written to the channel until the returned future is complete. io_uring channels can't be moved, as deregistering one only
+     * submits requests to cancel its pending polls which are then completed by the old ring, so they stay where they are and the returned future
+     * is already complete.
+     *
+     * @return a future which will be completed on the new event loop once the channel has been registered to it
+     */
+    public ChannelFuture moveToEventLoop(@NonNull Channel channel, @NonNull EventLoop loop) {
+        if (channel.eventLoop() == loop || channel instanceof IOUringSocketChannel) return channel.newSucceededFuture();
+
+        ChannelPromise promise = channel.newPromise();
+        channel.deregister().addListener(f -> {
+            if (f.isSuccess()) {
+                loop.register(promise);
+            } else {
+                promise.setFailure(f.cause());
             }
+        });
+        return promise;
+    }
+
+    private EventLoopGroup eventLoopGroup(@NonNull String name, int threads) {
+        ThreadFactory threadFactory = new DefaultThreadFactory("loopback-" + name);
+        return TRANSPORT.eventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * Shuts down all of the event loop groups.
+     */
+    public void shutdownEventLoops() {
+        BOSS_GROUP.shutdownGracefully();
+        CONTROL_GROUP.shutdownGracefully();
+        GROUP.shutdownGracefully();
+    }
+
+    /**
+     * Records the setup latency of a connection to a forward, if the given channel is that connection.
+     */
+    public void setupComplete(@NonNull Channel channel) {
+        if (channel.hasAttr(ATTR_STATS) && channel.hasAttr(ATTR_SETUP_START)) {
+            channel.attr(ATTR_STATS).get().setupComplete(channel.attr(ATTR_SETUP_START).get());
         }
     }
 
+    /**
+     * Closes a channel which wasn't bound because of the other end of the tunnel, rather than because it went away by itself.
+     */
+    public void setupFailed(@NonNull Channel channel) {
+        channel.attr(ATTR_SETUP_FAIL).set(Boolean.TRUE);
+        channel.close();
+    }
+
+    /**
+     * Forwards data between two channels which have already been bound together using {@code splice()} so that it never has to be copied
+     * into userspace.
+     * <p>
+     * Any data which was already read into a buffer before splicing starts will be forwarded normally by the relay handlers.
+     */
+    public void spliceChannels(@NonNull AbstractEpollStreamChannel backend, @NonNull AbstractEpollStreamChannel incoming) {
+        if (backend.eventLoop() != incoming.eventLoop()) {
+            //both channels must be on the same event loop in order to be spliced together
+            moveToEventLoop(incoming, backend.eventLoop()).addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    spliceChannels(backend, incoming);
+                } else {
+                    incoming.close();
+                    backend.close();
+                }
+            });
+            return;
+        }
+
+        backend.config().setAutoRead(true);
+        incoming.config().setAutoRead(true);
+
+        //spliced data never passes through the pipeline, so there's no way to tell if the channels are idle or how much they transferred
+        if (backend.hasAttr(ATTR_IDLE)) backend.attr(ATTR_IDLE).get().cancel();
+        if (incoming.hasAttr(ATTR_IDLE)) incoming.attr(ATTR_IDLE).get().cancel();
+        if (backend.hasAttr(ATTR_STATS)) backend.attr(ATTR_STATS).get().connectionSpliced();
+        if (incoming.hasAttr(ATTR_STATS)) incoming.attr(ATTR_STATS).get().connectionSpliced();
+
+        //splicing Integer.MAX_VALUE bytes continues until either channel is closed
+        backend.spliceTo(incoming, Integer.MAX_VALUE).addListener(SPLICE_CLOSE_HANDLER);
+        incoming.spliceTo(backend, Integer.MAX_VALUE).addListener(SPLICE_CLOSE_HANDLER);
+    }
+
+    /**
+     * Gets a future which will be completed once the given channel has completed its TLS handshake, or immediately if the channel is a
+     * plaintext channel which is already active.
+     */
+    public Future<Channel> handshakeFuture(@NonNull Channel channel) {
+        SslHandler ssl = channel.pipeline().get(SslHandler.class);
+        if (ssl != null) return ssl.handshakeFuture();
+
+        PlaintextHandshakeHandler plaintext = channel.pipeline().get(PlaintextHandshakeHandler.class);
+        if (plaintext != null) return plaintext.handshakeFuture();
+
+        return channel.isActive() ? channel.eventLoop().newSucceededFuture(channel) : channel.eventLoop().newFailedFuture(new IllegalStateException("Channel is not active"));
+    }
+
+    /**
+     * Creates a decoder for frames prefixed with a 4-byte length, which is stripped off.
+     */
+    public LengthFieldBasedFrameDecoder frameDecoder(int maxFrameLength) {
+        return new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4);
+    }
+
+    /**
+     * Removes a channel's frame decoder, if it has one. Any bytes which have been read but not yet decoded will be passed on as-is.
+     */
+    public void removeFrameDecoder(@NonNull Channel channel) {
+        if (channel.pipeline().get("frame") != null) channel.pipeline().remove("frame");
+    }
+
+    /**
+     * Allocates a buffer for a new frame, with space reserved for the length prefix.
+     * <p>
+     * Once the frame's contents have been written, it must be completed using {@link #endFrame(ByteBuf)}.
+     */
+    public ByteBuf beginFrame(@NonNull ByteBufAllocator alloc, int initialCapacity) {
+        return alloc.ioBuffer(4 + initialCapacity).writeInt(-1);
+    }
+
+    public ByteBuf endFrame(@NonNull ByteBuf frame) {
+        return frame.setInt(frame.readerIndex(), frame.readableBytes() - 4);
+    }
+
+    /**
+     * Creates the frame sent by the client to identify a new backend channel.
+     */
+    public ByteBuf identificationFrame(@NonNull ByteBufAllocator alloc, @NonNull byte[] password, int type, long controlId) {
+        return endFrame(beginFrame(alloc, IDENTIFICATION_BYTES)
+                .writeByte(PROTOCOL_VERSION)
+                .writeBytes(password, 0, PASSWORD_BYTES)
+                .writeByte(type)
+                .writeLong(controlId));
+    }
+
     public void writeAddress(@NonNull ByteBuf buf, @NonNull InetSocketAddress address) {
         int i = buf.writerIndex();
         int cnt = buf.writeInt(-1).writeCharSequence(address.getHostString(), StandardCharsets.UTF_8);
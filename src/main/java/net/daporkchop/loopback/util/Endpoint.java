@@ -19,6 +19,7 @@ import io.netty.util.concurrent.Future;
 import lombok.NonNull;
 import net.daporkchop.lib.logging.Logger;
 import net.daporkchop.lib.logging.Logging;
+import net.daporkchop.loopback.common.metrics.Metrics;
 
 /**
  * @author DaPorkchop_
@@ -28,8 +29,14 @@ public interface Endpoint {
 
     Future<Void> close();
 
+    Metrics metrics();
+
     default boolean handleCommand(@NonNull String command) {
         if ("stop".equals(command)) return true;
+        if ("stats".equals(command)) {
+            this.metrics().print(Logging.logger);
+            return false;
+        }
         if ("help".equals(command)) {
             this.printHelp(Logging.logger);
             return false;
@@ -42,6 +49,7 @@ public interface Endpoint {
     default void printHelp(@NonNull Logger logger) {
         logger.info("Available commands:")
                 .info("  help")
+                .info("  stats")
                 .info("  stop");
     }
 }
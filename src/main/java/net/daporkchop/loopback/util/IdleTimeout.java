@@ -0,0 +1,73 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.util;
+
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * Closes a channel once it has gone {@link Timeouts#IDLE_TIMEOUT} milliseconds without any traffic.
+ * <p>
+ * Marking the channel as active only writes the coarse clock's value to a field. Rather than being rescheduled on every bit of activity, the
+ * timeout re-arms itself for the remaining time whenever it fires early.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class IdleTimeout implements TimerTask {
+    protected final Channel channel;
+
+    protected volatile long    lastActivity = Timeouts.now();
+    protected volatile boolean cancelled;
+
+    public IdleTimeout(@NonNull Channel channel) {
+        this.channel = channel;
+
+        Timeouts.TIMER.newTimeout(this, Timeouts.IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    public void touch() {
+        long now = Timeouts.now();
+        if (this.lastActivity != now) this.lastActivity = now;
+    }
+
+    /**
+     * Stops tracking the channel's idle time, for channels whose traffic can't be observed (e.g. spliced channels).
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (this.cancelled || !this.channel.isOpen()) return;
+
+        long remaining = this.lastActivity + Timeouts.IDLE_TIMEOUT - Timeouts.now();
+        if (remaining > 0L) {
+            timeout.timer().newTimeout(this, remaining, TimeUnit.MILLISECONDS);
+        } else {
+            this.channel.attr(ATTR_LOG).get().debug("idle timeout");
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free table which assigns IDs to values.
+ * <p>
+ * IDs are made up of a slot index (low 32 bits) and the slot's generation (high 32 bits). The generation is incremented both when a value is
+ * added and when it's removed, so it's odd while the slot is occupied, and an ID which has already been removed will never match a value
+ * that was added to the same slot later on.
+ * <p>
+ * Free slots are kept on a tagged Treiber stack, so adding and removing values are O(1) and never block. Slots are allocated in chunks as
+ * they are first needed.
+ *
+ * @author DaPorkchop_
+ */
+public final class SlotTable<V> {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+
+    private static final int EMPTY = -1;
+
+    private static long pack(int high, int low) {
+        return ((long) high << 32L) | (low & 0xFFFFFFFFL);
+    }
+
+    @Getter
+    private final int capacity;
+
+    private final AtomicReferenceArray<Chunk<V>> chunks;
+    private final AtomicInteger                  allocated = new AtomicInteger(); //number of slots that have ever been handed out
+    private final AtomicLong                     freeHead  = new AtomicLong(pack(0, EMPTY)); //[tag][index] to prevent ABA
+
+    public SlotTable(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException(String.valueOf(capacity));
+
+        this.capacity = capacity;
+        this.chunks = new AtomicReferenceArray<>(((capacity - 1) >>> CHUNK_SHIFT) + 1);
+    }
+
+    /**
+     * Adds a value to the table.
+     *
+     * @param value the value to add
+     * @return the value's ID, or {@code -1L} if the table is full
+     */
+    public long add(@NonNull V value) {
+        int index = this.popFree();
+        if (index == EMPTY) {
+            if (this.allocated.get() >= this.capacity || (index = this.allocated.getAndIncrement()) >= this.capacity) {
+                return -1L;
+            }
+        }
+
+        Chunk<V> chunk = this.chunk(index);
+        int slot = index & CHUNK_MASK;
+        chunk.values.set(slot, value);
+        return pack(chunk.generations.incrementAndGet(slot), index);
+    }
+
+    /**
+     * Gets the value with the given ID.
+     *
+     * @param id the ID
+     * @return the value, or {@code null} if there is no value with the given ID
+     */
+    public V get(long id) {
+        int index = (int) id;
+        Chunk<V> chunk;
+        if (index < 0 || index >= this.capacity || (chunk = this.chunks.get(index >>> CHUNK_SHIFT)) == null) return null;
+
+        int slot = index & CHUNK_MASK;
+        V value = chunk.values.get(slot);
+        //the generation is checked after reading the value, as it's always incremented before the value is cleared
+        int generation = (int) (id >>> 32L);
+        return (generation & 1) != 0 && chunk.generations.get(slot) == generation ? value : null;
+    }
+
+    /**
+     * Removes the value with the given ID.
+     *
+     * @param id the ID
+     * @return the removed value, or {@code null} if there is no value with the given ID
+     */
+    public V remove(long id) {
+        int index = (int) id;
+        Chunk<V> chunk;
+        if (index < 0 || index >= this.capacity || (chunk = this.chunks.get(index >>> CHUNK_SHIFT)) == null) return null;
+
+        int slot = index & CHUNK_MASK;
+        int generation = (int) (id >>> 32L);
+        if ((generation & 1) == 0 || !chunk.generations.compareAndSet(slot, generation, generation + 1)) {
+            return null; //stale ID, or the value was already removed
+        }
+
+        V value = chunk.values.getAndSet(slot, null);
+        this.pushFree(chunk, index);
+        return value;
+    }
+
+    private Chunk<V> chunk(int index) {
+        int i = index >>> CHUNK_SHIFT;
+        Chunk<V> chunk = this.chunks.get(i);
+        if (chunk == null && !this.chunks.compareAndSet(i, null, chunk = new Chunk<>())) {
+            chunk = this.chunks.get(i);
+        }
+        return chunk;
+    }
+
+    private int popFree() {
+        while (true) {
+            long head = this.freeHead.get();
+            int index = (int) head;
+            if (index == EMPTY) return EMPTY;
+
+            //the link is published by the CAS in pushFree, and a stale read will fail the CAS below because the tag will have changed
+            int next = this.chunks.get(index >>> CHUNK_SHIFT).next[index & CHUNK_MASK];
+            if (this.freeHead.compareAndSet(head, pack((int) (head >>> 32L) + 1, next))) return index;
+        }
+    }
+
+    private void pushFree(@NonNull Chunk<V> chunk, int index) {
+        while (true) {
+            long head = this.freeHead.get();
+            chunk.next[index & CHUNK_MASK] = (int) head;
+            if (this.freeHead.compareAndSet(head, pack((int) (head >>> 32L) + 1, index))) return;
+        }
+    }
+
+    private static final class Chunk<V> {
+        final AtomicReferenceArray<V> values      = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicIntegerArray      generations = new AtomicIntegerArray(CHUNK_SIZE);
+        final int[]                   next        = new int[CHUNK_SIZE];
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.util;
+
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.incubator.codec.quic.QuicSslContext;
+import io.netty.incubator.codec.quic.QuicSslContextBuilder;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.logging.Logging;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the {@link SslContext}s used for backend channels.
+ * <p>
+ * OpenSSL (via netty-tcnative) is used if it's available, as it's considerably faster than the JDK's {@link javax.net.ssl.SSLEngine}. Both
+ * sides keep a session cache (and the server issues session tickets) so that data channels can resume a previous session rather than doing
+ * a full key exchange every time.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class SslContexts {
+    public final SslProvider PROVIDER = OpenSsl.isAvailable() && !Boolean.getBoolean("loopback.tls.jdk") ? SslProvider.OPENSSL : SslProvider.JDK;
+
+    public final int SESSION_CACHE_SIZE = Integer.getInteger("loopback.tls.sessionCacheSize", 4096);
+    public final int SESSION_TIMEOUT    = Integer.getInteger("loopback.tls.sessionTimeout", 3600); //seconds
+
+    public final String QUIC_PROTOCOL = "loopback"; //ALPN id, QUIC requires one to be negotiated
+
+    public final List<String> PROTOCOLS = SslProvider.isTlsv13Supported(PROVIDER)
+            ? Arrays.asList("TLSv1.3", "TLSv1.2")
+            : Arrays.asList("TLSv1.2");
+
+    /**
+     * AEAD cipher suites only. AES-GCM comes first as it's hardware accelerated almost everywhere, set {@code loopback.tls.ciphers} to
+     * override the order (e.g. to prefer ChaCha20 on CPUs without AES instructions).
+     */
+    public final List<String> CIPHERS = System.getProperty("loopback.tls.ciphers") != null
+            ? Arrays.asList(System.getProperty("loopback.tls.ciphers").split(","))
+            : Arrays.asList(
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256");
+
+    public SslContext server() {
+        try {
+            SelfSignedCertificate cert = new SelfSignedCertificate();
+            cert.delete();
+            SslContext context = SslContextBuilder.forServer(cert.key(), cert.cert())
+                    .sslProvider(PROVIDER)
+                    .protocols(PROTOCOLS)
+                    .ciphers(CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .sessionCacheSize(SESSION_CACHE_SIZE)
+                    .sessionTimeout(SESSION_TIMEOUT)
+                    .clientAuth(ClientAuth.OPTIONAL)
+                    .build();
+
+            if (context.sessionContext() instanceof OpenSslSessionContext) {
+                byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+                byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+                byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+                SecureRandom random = new SecureRandom();
+                random.nextBytes(name);
+                random.nextBytes(hmacKey);
+                random.nextBytes(aesKey);
+                ((OpenSslSessionContext) context.sessionContext()).setTicketKeys(new OpenSslSessionTicketKey(name, hmacKey, aesKey));
+            }
+
+            logContext("server", context);
+            return context;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public SslContext client() {
+        try {
+            SslContext context = SslContextBuilder.forClient()
+                    .sslProvider(PROVIDER)
+                    .protocols(PROTOCOLS)
+                    .ciphers(CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .sessionCacheSize(SESSION_CACHE_SIZE)
+                    .sessionTimeout(SESSION_TIMEOUT)
+                    .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                    .build();
+
+            logContext("client", context);
+            return context;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * QUIC always uses TLS 1.3 with its own cipher suites.
+     * <p>
+     * 0-RTT isn't used: streams are only opened once a link's handshake is complete, and the server validates each client's address with a
+     * Retry first anyway, so a new link always costs a full handshake.
+     */
+    public QuicSslContext quicServer() {
+        try {
+            SelfSignedCertificate cert = new SelfSignedCertificate();
+            cert.delete();
+            return QuicSslContextBuilder.forServer(cert.key(), null, cert.cert())
+                    .applicationProtocols(QUIC_PROTOCOL)
+                    .build();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public QuicSslContext quicClient() {
+        return QuicSslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .applicationProtocols(QUIC_PROTOCOL)
+                .build();
+    }
+
+    private void logContext(String side, SslContext context) {
+        Logging.logger.debug("TLS %s context: provider=%s protocols=%s ciphers=%s", side, PROVIDER, PROTOCOLS, context.cipherSuites());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.util;
+
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.loopback.util.Constants.*;
+
+/**
+ * All connection timeouts are handled by a single hashed timing wheel rather than by tasks scheduled on the event loops, and idle tracking
+ * uses a coarse clock which is only updated once per tick of the wheel.
+ * <p>
+ * All durations are in milliseconds.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class Timeouts {
+    public final long TICK             = Long.getLong("loopback.timeout.tick", 100L);
+    public final long SETUP_TIMEOUT    = Long.getLong("loopback.timeout.setup", 10_000L); //time allowed for a channel to authenticate or be bound
+    public final long IDLE_TIMEOUT     = Long.getLong("loopback.timeout.idle", 600_000L); //time a tunnel may go without traffic, 0 to disable
+    public final long UDP_IDLE_TIMEOUT = Long.getLong("loopback.timeout.udpIdle", 60_000L); //time a UDP flow may go without traffic
+
+    public final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("loopback-timer", true), TICK, TimeUnit.MILLISECONDS, 512);
+
+    private volatile long now = System.currentTimeMillis();
+
+    private final TimerTask CLOCK_TASK = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            now = System.currentTimeMillis();
+            timeout.timer().newTimeout(this, TICK, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    private final Timeout CLOCK = TIMER.newTimeout(CLOCK_TASK, TICK, TimeUnit.MILLISECONDS);
+
+    /**
+     * @return the current time, accurate to roughly one tick
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Closes the given channel if it hasn't been marked as bound once the setup timeout expires.
+     */
+    public void closeIfNotBound(@NonNull Channel channel) {
+        TIMER.newTimeout(timeout -> {
+            if (!channel.hasAttr(ATTR_BOUND)) setupFailed(channel);
+        }, SETUP_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the given channel if it hasn't completed its TLS handshake once the setup timeout expires.
+     */
+    public void closeIfNotHandshaked(@NonNull Channel channel) {
+        TIMER.newTimeout(timeout -> {
+            if (!handshakeFuture(channel).isSuccess()) channel.close();
+        }, SETUP_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Adapted from the Wizardry License
+ *
+ * Copyright (c) 2019-2019 DaPorkchop_ and contributors
+ *
+ * Permission is hereby granted to any persons and/or organizations using this software to copy, modify, merge, publish, and distribute it. Said persons and/or organizations are not allowed to use the software or any derivatives of the work for commercial use or any other means to generate income, nor are they allowed to claim this software as their own.
+ *
+ * The persons and/or organizations are also disallowed from sub-licensing and/or trademarking this software without explicit permission from DaPorkchop_.
+ *
+ * Any persons and/or organizations using this software must disclose their source code and have it publicly available, include this license, provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.loopback.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFactory;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringDatagramChannel;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUringSocketChannel;
+import lombok.NonNull;
+import net.daporkchop.lib.logging.Logging;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The transports that channels can be created with.
+ * <p>
+ * Transports are ordered by preference, if one of them isn't supported by the system the next one is used instead. NIO is always available.
+ *
+ * @author DaPorkchop_
+ */
+public enum Transport {
+    IO_URING {
+        @Override
+        public boolean isAvailable() {
+            return IOUring.isAvailable();
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return IOUring.unavailabilityCause();
+        }
+
+        @Override
+        public EventLoopGroup eventLoopGroup(int threads, @NonNull ThreadFactory threadFactory) {
+            return new IOUringEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public ChannelFactory<Channel> socketChannelFactory() {
+            return IOUringSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<ServerChannel> serverSocketChannelFactory() {
+            return IOUringServerSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<DatagramChannel> datagramChannelFactory() {
+            return IOUringDatagramChannel::new;
+        }
+
+        @Override
+        public RecvByteBufAllocator recvByteBufAllocator() {
+            //a read which fills the whole buffer is followed by another one which doesn't complete until more data arrives, and channelReadComplete
+            // isn't fired until the read loop ends. relayed data is only flushed on channelReadComplete, so it would be stuck until then
+            return new AdaptiveRecvByteBufAllocator().maxMessagesPerRead(1);
+        }
+
+        @Override
+        public Bootstrap datagramOptions(@NonNull Bootstrap bootstrap, int maxDatagram, int batch) {
+            //each read submits one recvmsg per datagram that fits into the buffer, and they all complete together
+            return bootstrap.option(IOUringChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxDatagram)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagram * batch).maxMessagesPerRead(1));
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return Epoll.unavailabilityCause();
+        }
+
+        @Override
+        public EventLoopGroup eventLoopGroup(int threads, @NonNull ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public ChannelFactory<Channel> socketChannelFactory() {
+            return EpollSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<ServerChannel> serverSocketChannelFactory() {
+            return EpollServerSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<DatagramChannel> datagramChannelFactory() {
+            return EpollDatagramChannel::new;
+        }
+
+        @Override
+        public Bootstrap datagramOptions(@NonNull Bootstrap bootstrap, int maxDatagram, int batch) {
+            //recvmmsg() fills the buffer with as many datagrams as fit into it using a single syscall
+            return bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxDatagram)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagram * batch));
+        }
+    },
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return null;
+        }
+
+        @Override
+        public EventLoopGroup eventLoopGroup(int threads, @NonNull ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public ChannelFactory<Channel> socketChannelFactory() {
+            return NioSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<ServerChannel> serverSocketChannelFactory() {
+            return NioServerSocketChannel::new;
+        }
+
+        @Override
+        public ChannelFactory<DatagramChannel> datagramChannelFactory() {
+            return NioDatagramChannel::new;
+        }
+    };
+
+    /**
+     * Selects the transport to use.
+     *
+     * @param name the name of the preferred transport ({@code io_uring}, {@code epoll} or {@code nio}), or {@code auto} to use epoll if it's
+     *             available
+     * @return the preferred transport, or the next one that is available if it isn't
+     */
+    public static Transport select(@NonNull String name) {
+        Transport transport = EPOLL;
+        if (!"auto".equalsIgnoreCase(name)) {
+            try {
+                transport = valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Unknown transport: %s", name));
+            }
+        }
+        while (!transport.isAvailable()) {
+            Transport next = values()[transport.ordinal() + 1];
+            if (!"auto".equalsIgnoreCase(name)) {
+                Logging.logger.warn("%s transport is not available (%s), falling back to %s", transport, transport.unavailabilityCause(), next);
+            }
+            transport = next;
+        }
+        return transport;
+    }
+
+    public abstract boolean isAvailable();
+
+    public abstract Throwable unavailabilityCause();
+
+    public abstract EventLoopGroup eventLoopGroup(int threads, @NonNull ThreadFactory threadFactory);
+
+    public abstract ChannelFactory<Channel> socketChannelFactory();
+
+    public abstract ChannelFactory<ServerChannel> serverSocketChannelFactory();
+
+    public abstract ChannelFactory<DatagramChannel> datagramChannelFactory();
+
+    /**
+     * @return the {@link RecvByteBufAllocator} which socket channels should use
+     */
+    public RecvByteBufAllocator recvByteBufAllocator() {
+        return new AdaptiveRecvByteBufAllocator();
+    }
+
+    /**
+     * Configures a bootstrap for datagram channels.
+     * <p>
+     * Where the transport supports it, up to {@code batch} datagrams are received by a single read. Writes need no extra configuration: when
+     * several datagrams are flushed together, epoll sends all of them with a single {@code sendmmsg()} call.
+     *
+     * @param maxDatagram the maximum size of a datagram, longer datagrams are truncated
+     * @param batch       the number of datagrams to read at once
+     */
+    public Bootstrap datagramOptions(@NonNull Bootstrap bootstrap, int maxDatagram, int batch) {
+        return bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagram).maxMessagesPerRead(batch));
+    }
+
+    @Override
+    public String toString() {
+        return this.name().toLowerCase();
+    }
+}